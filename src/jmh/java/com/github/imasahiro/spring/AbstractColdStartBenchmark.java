@@ -0,0 +1,112 @@
+/*
+ * Copyright 2017 LINE Corporation
+ *
+ * LINE Corporation licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.github.imasahiro.spring;
+
+import java.util.ResourceBundle;
+import java.util.concurrent.CountDownLatch;
+import java.util.function.IntConsumer;
+
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.springframework.util.ClassUtils;
+
+/**
+ * Base of the benchmarks that measure fresh message sources. Every invocation starts without
+ * the bundles cached by {@link ResourceBundle} itself. Runs a single JMH thread, since clearing
+ * that cache from several would drop the bundles the others are loading. Benchmarks of concurrent
+ * cache misses start their own request threads with {@link #startThreads} instead.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@Threads(1)
+public abstract class AbstractColdStartBenchmark {
+    static final int SECTION_COUNT = 10;
+
+    private CountDownLatch startGate;
+    private CountDownLatch endGate;
+    private Thread[] threads;
+
+    /**
+     * Return the basenames of the {@code sections/section*} bundles, each of which defines
+     * the {@code section<n>.item.*} messages.
+     */
+    static String[] sectionBasenames() {
+        String[] basenames = new String[SECTION_COUNT];
+        for (int i = 0; i < SECTION_COUNT; i++) {
+            basenames[i] = "sections/section" + (i + 1);
+        }
+        return basenames;
+    }
+
+    /**
+     * Drop the bundles cached by ResourceBundle itself, so that every invocation loads them.
+     * Runs before the setup of the states that take this benchmark as a parameter.
+     */
+    @Setup(Level.Invocation)
+    public void clearCaches() {
+        ResourceBundle.clearCache(ClassUtils.getDefaultClassLoader());
+    }
+
+    /**
+     * Start the given number of threads, which wait for {@link #runThreads} and then run
+     * the given task once with their index.
+     */
+    protected void startThreads(int threadCount, IntConsumer task) {
+        startGate = new CountDownLatch(1);
+        endGate = new CountDownLatch(threadCount);
+        threads = new Thread[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            int index = i;
+            threads[i] = new Thread(() -> {
+                try {
+                    startGate.await();
+                    task.accept(index);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    endGate.countDown();
+                }
+            });
+            threads[i].start();
+        }
+    }
+
+    /**
+     * Release the threads started for this invocation at the same time, and wait until
+     * all of them have run their task.
+     */
+    protected void runThreads() throws InterruptedException {
+        startGate.countDown();
+        endGate.await();
+    }
+
+    @TearDown(Level.Invocation)
+    public void joinThreads() throws InterruptedException {
+        if (threads != null) {
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            threads = null;
+        }
+    }
+}
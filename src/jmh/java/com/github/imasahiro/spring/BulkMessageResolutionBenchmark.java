@@ -0,0 +1,57 @@
+/*
+ * Copyright 2017 LINE Corporation
+ *
+ * LINE Corporation licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.github.imasahiro.spring;
+
+import static com.github.imasahiro.spring.ResourceBundleMessageSourceBenchmark.setupMessageSource;
+
+import java.util.Locale;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Compare resolving the 50 labels of a page with a single
+ * {@link ConcurrentResourceBundleMessageSource#getMessages(String[], Object[][], Locale)} call
+ * to resolving them with 50 {@code getMessage} calls.
+ */
+@Threads(20)
+public class BulkMessageResolutionBenchmark {
+    private static final int CODE_COUNT = 50;
+
+    private static final ConcurrentResourceBundleMessageSource messageSource =
+            setupMessageSource(new ConcurrentResourceBundleMessageSource(), "messages/messages");
+    private static final String[] codes = new String[CODE_COUNT];
+
+    static {
+        for (int i = 0; i < CODE_COUNT; i++) {
+            codes[i] = "label." + (i + 1);
+        }
+    }
+
+    @Benchmark
+    public void individual(Blackhole bh) {
+        for (String code : codes) {
+            bh.consume(messageSource.getMessage(code, null, Locale.ENGLISH));
+        }
+    }
+
+    @Benchmark
+    public void batch(Blackhole bh) {
+        bh.consume(messageSource.getMessages(codes, null, Locale.ENGLISH));
+    }
+}
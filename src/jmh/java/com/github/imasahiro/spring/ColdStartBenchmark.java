@@ -0,0 +1,81 @@
+/*
+ * Copyright 2017 LINE Corporation
+ *
+ * LINE Corporation licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.github.imasahiro.spring;
+
+import static com.github.imasahiro.spring.ResourceBundleMessageSourceBenchmark.setupMessageSource;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.context.MessageSource;
+import org.springframework.context.support.ResourceBundleMessageSource;
+
+/**
+ * Simulate the stampede after a deploy: 200 request threads, released at the same time,
+ * all miss the caches of a fresh message source for the same bundles. Measures the time
+ * until every thread has its message, with the threads started up front. Concurrent misses
+ * on a bundle wait for a single load in {@link ConcurrentResourceBundleMessageSource},
+ * and each load their own copy in {@link ResourceBundleMessageSource}.
+ */
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ColdStartBenchmark extends AbstractColdStartBenchmark {
+    private static final int THREAD_COUNT = 200;
+
+    private void startThreads(MessageSource messageSource) {
+        startThreads(THREAD_COUNT, i -> messageSource.getMessage(
+                "section" + (i % SECTION_COUNT + 1) + ".item.1", null, Locale.ENGLISH));
+    }
+
+    /**
+     * Threads of the {@link ResourceBundleMessageSource} cold start.
+     */
+    @State(Scope.Thread)
+    public static class Original {
+        @Setup(Level.Invocation)
+        public void setUp(ColdStartBenchmark benchmark) {
+            benchmark.startThreads(setupMessageSource(new ResourceBundleMessageSource(), sectionBasenames()));
+        }
+    }
+
+    /**
+     * Threads of the {@link ConcurrentResourceBundleMessageSource} cold start.
+     */
+    @State(Scope.Thread)
+    public static class Concurrent {
+        @Setup(Level.Invocation)
+        public void setUp(ColdStartBenchmark benchmark) {
+            benchmark.startThreads(setupMessageSource(new ConcurrentResourceBundleMessageSource(),
+                                                      sectionBasenames()));
+        }
+    }
+
+    @Benchmark
+    public void original(Original threads) throws InterruptedException {
+        runThreads();
+    }
+
+    @Benchmark
+    public void concurrent(Concurrent threads) throws InterruptedException {
+        runThreads();
+    }
+}
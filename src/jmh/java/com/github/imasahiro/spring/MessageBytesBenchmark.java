@@ -0,0 +1,84 @@
+/*
+ * Copyright 2017 LINE Corporation
+ *
+ * LINE Corporation licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.github.imasahiro.spring;
+
+import static com.github.imasahiro.spring.ResourceBundleMessageSourceBenchmark.setupMessageSource;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Compare writing the no-arg {@code btn.*} and {@code label.*} messages to a response stream
+ * by encoding the resolved String on every write to writing the cached UTF-8 bytes with
+ * {@link ConcurrentResourceBundleMessageSource#writeMessage(OutputStream, String, Object[], Locale)}.
+ * The stream discards its input, so only the encoding cost differs.
+ */
+@Threads(20)
+public class MessageBytesBenchmark {
+    private static final ConcurrentResourceBundleMessageSource messageSource =
+            setupMessageSource(new ConcurrentResourceBundleMessageSource(), "messages/messages");
+    private static final String[] codes = new String[56];
+
+    static {
+        for (int i = 0; i < 6; i++) {
+            codes[i] = "btn." + (i + 1);
+        }
+        for (int i = 0; i < 50; i++) {
+            codes[6 + i] = "label." + (i + 1);
+        }
+    }
+
+    @Benchmark
+    public void encodeString(Blackhole bh) throws IOException {
+        OutputStream out = new BlackholeOutputStream(bh);
+        for (String code : codes) {
+            out.write(messageSource.getMessage(code, null, Locale.ENGLISH).getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    @Benchmark
+    public void preEncoded(Blackhole bh) throws IOException {
+        OutputStream out = new BlackholeOutputStream(bh);
+        for (String code : codes) {
+            messageSource.writeMessage(out, code, null, Locale.ENGLISH);
+        }
+    }
+
+    private static final class BlackholeOutputStream extends OutputStream {
+        private final Blackhole bh;
+
+        BlackholeOutputStream(Blackhole bh) {
+            this.bh = bh;
+        }
+
+        @Override
+        public void write(int b) {
+            bh.consume(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            bh.consume(b);
+        }
+    }
+}
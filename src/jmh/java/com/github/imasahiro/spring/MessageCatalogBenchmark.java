@@ -0,0 +1,61 @@
+/*
+ * Copyright 2017 LINE Corporation
+ *
+ * LINE Corporation licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.github.imasahiro.spring;
+
+import static com.github.imasahiro.spring.ResourceBundleMessageSourceBenchmark.setupMessageSource;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Setup;
+
+/**
+ * Compare the latency of the first request to a fresh message source, which has to load the bundle,
+ * when parsing {@code .properties} files to loading the {@link MessageCatalog message catalogs}
+ * precompiled by the {@code compileJmhMessageCatalogs} task.
+ */
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MessageCatalogBenchmark extends AbstractColdStartBenchmark {
+    private ConcurrentResourceBundleMessageSource propertiesMessageSource;
+    private ConcurrentResourceBundleMessageSource catalogMessageSource;
+
+    private static ConcurrentResourceBundleMessageSource newMessageSource(boolean usePrecompiledCatalogs) {
+        ConcurrentResourceBundleMessageSource messageSource =
+                setupMessageSource(new ConcurrentResourceBundleMessageSource(), "messages/messages");
+        messageSource.setUsePrecompiledCatalogs(usePrecompiledCatalogs);
+        return messageSource;
+    }
+
+    @Setup(Level.Invocation)
+    public void setUp() {
+        propertiesMessageSource = newMessageSource(false);
+        catalogMessageSource = newMessageSource(true);
+    }
+
+    @Benchmark
+    public String firstRequestWithProperties() {
+        return propertiesMessageSource.getMessage("btn.1", null, Locale.ENGLISH);
+    }
+
+    @Benchmark
+    public String firstRequestWithCatalog() {
+        return catalogMessageSource.getMessage("btn.1", null, Locale.ENGLISH);
+    }
+}
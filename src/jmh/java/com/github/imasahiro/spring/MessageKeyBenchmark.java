@@ -0,0 +1,60 @@
+/*
+ * Copyright 2017 LINE Corporation
+ *
+ * LINE Corporation licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.github.imasahiro.spring;
+
+import static com.github.imasahiro.spring.ResourceBundleMessageSourceBenchmark.setupMessageSource;
+
+import java.util.Locale;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Compare resolving the no-arg {@code btn.*} messages by their code to resolving them
+ * by {@link MessageKey} handles obtained once up front.
+ */
+@Threads(20)
+public class MessageKeyBenchmark {
+    private static final int CODE_COUNT = 6;
+
+    private static final ConcurrentResourceBundleMessageSource messageSource =
+            setupMessageSource(new ConcurrentResourceBundleMessageSource(), "messages/messages");
+    private static final String[] codes = new String[CODE_COUNT];
+    private static final MessageKey[] keys = new MessageKey[CODE_COUNT];
+
+    static {
+        for (int i = 0; i < CODE_COUNT; i++) {
+            codes[i] = "btn." + (i + 1);
+            keys[i] = messageSource.getMessageKey(codes[i]);
+        }
+    }
+
+    @Benchmark
+    public void code(Blackhole bh) {
+        for (String code : codes) {
+            bh.consume(messageSource.getMessage(code, null, Locale.ENGLISH));
+        }
+    }
+
+    @Benchmark
+    public void key(Blackhole bh) {
+        for (MessageKey key : keys) {
+            bh.consume(messageSource.getMessageByKey(key, null, Locale.ENGLISH));
+        }
+    }
+}
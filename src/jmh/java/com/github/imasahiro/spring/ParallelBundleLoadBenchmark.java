@@ -0,0 +1,59 @@
+/*
+ * Copyright 2017 LINE Corporation
+ *
+ * LINE Corporation licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.github.imasahiro.spring;
+
+import static com.github.imasahiro.spring.ResourceBundleMessageSourceBenchmark.setupMessageSource;
+
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Setup;
+
+/**
+ * Compare the latency of the first request for a Locale with 10 basenames, when loading
+ * their bundles one by one on the requesting thread to loading them in parallel on the
+ * common {@link ForkJoinPool}. The requested code is defined in the last basename only,
+ * so both have to load every bundle.
+ */
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ParallelBundleLoadBenchmark extends AbstractColdStartBenchmark {
+    private ConcurrentResourceBundleMessageSource sequentialMessageSource;
+    private ConcurrentResourceBundleMessageSource parallelMessageSource;
+
+    @Setup(Level.Invocation)
+    public void setUp() {
+        sequentialMessageSource = setupMessageSource(new ConcurrentResourceBundleMessageSource(),
+                                                     sectionBasenames());
+        parallelMessageSource = setupMessageSource(new ConcurrentResourceBundleMessageSource(),
+                                                   sectionBasenames());
+        parallelMessageSource.setBundleLoadExecutor(ForkJoinPool.commonPool());
+    }
+
+    @Benchmark
+    public String sequential() {
+        return sequentialMessageSource.getMessage("section" + SECTION_COUNT + ".item.1", null, Locale.ENGLISH);
+    }
+
+    @Benchmark
+    public String parallel() {
+        return parallelMessageSource.getMessage("section" + SECTION_COUNT + ".item.1", null, Locale.ENGLISH);
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2017 LINE Corporation
+ *
+ * LINE Corporation licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.github.imasahiro.spring;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.PropertyResourceBundle;
+import java.util.ResourceBundle;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * Compare parsing a bundle of 50,000 messages with {@link PropertyResourceBundle}, as
+ * {@link org.springframework.context.support.ResourceBundleMessageSource} does, to parsing it
+ * with {@link PropertiesBundle}. The bundle is held in memory, so only decoding and parsing
+ * are measured, on a single thread since parsing does not contend on anything.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Threads(1)
+public class PropertiesParserBenchmark {
+    private static final int KEY_COUNT = 50000;
+
+    private static final byte[] properties;
+
+    static {
+        StringBuilder builder = new StringBuilder();
+        builder.append("# Generated messages\n");
+        for (int i = 0; i < KEY_COUNT; i++) {
+            builder.append("page.section").append(i % 100).append(".label").append(i)
+                   .append(" = Label number ").append(i).append(" of {0}, café あ\n");
+        }
+        properties = builder.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public ResourceBundle propertyResourceBundle() throws IOException {
+        return new PropertyResourceBundle(
+                new InputStreamReader(new ByteArrayInputStream(properties), StandardCharsets.UTF_8));
+    }
+
+    @Benchmark
+    public ResourceBundle propertiesBundle() throws IOException {
+        return PropertiesBundle.read(new ByteArrayInputStream(properties), StandardCharsets.UTF_8);
+    }
+}
@@ -24,6 +24,7 @@ import java.util.Locale;
 import java.util.concurrent.ConcurrentHashMap;
 
 import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Threads;
 import org.openjdk.jmh.infra.Blackhole;
 import org.springframework.context.MessageSource;
 import org.springframework.context.support.AbstractResourceBasedMessageSource;
@@ -50,15 +51,31 @@ import org.springframework.context.support.ResourceBundleMessageSource;
  * ResourceBundleMessageSourceBenchmark.concurrent  thrpt   20  11137855.564 ± 344640.055  ops/s
  * ResourceBundleMessageSourceBenchmark.original    thrpt   20   1924866.006 ± 332692.104  ops/s
  * </pre>
+ * These results predate the variants below and the later changes to
+ * {@link ConcurrentResourceBundleMessageSource}; none have been recorded for them yet.
+ * The {@code *WithArguments} variants resolve parameterized messages. The original source formats them
+ * through its cached, synchronized {@link java.text.MessageFormat}, while
+ * {@link ConcurrentResourceBundleMessageSource} formats them through a cached {@link MessageTemplate},
+ * which needs no locking.
+ * Run them with {@code ./gradlew jmh -Pjmh.threads=1} and the default 20 threads to compare both settings.
+ * Add {@code -Pjmh.profilers=gc} to report the allocated bytes per operation, e.g. of no-arg lookups
+ * served from the resolved message cache of {@link ConcurrentResourceBundleMessageSource}.
+ * The {@code *Missing} variants look up codes which are not defined in any bundle and fall back to
+ * a default message, as optional labels do.
  */
+@Threads(20)
 public class ResourceBundleMessageSourceBenchmark {
     private static final MessageSource defaultMessageSource =
-            setupMessageSource(new ResourceBundleMessageSource());
+            setupMessageSource(new ResourceBundleMessageSource(), "messages/messages");
     private static final MessageSource concurrentMessageSource =
-            setupMessageSource(new ConcurrentResourceBundleMessageSource());
+            setupMessageSource(new ConcurrentResourceBundleMessageSource(), "messages/messages");
 
-    private static MessageSource setupMessageSource(AbstractResourceBasedMessageSource messageSource) {
-        messageSource.setBasenames("messages/messages");
+    /**
+     * Configure the given message source the same way for all benchmarks, caching forever.
+     */
+    static <T extends AbstractResourceBasedMessageSource> T setupMessageSource(T messageSource,
+                                                                              String... basenames) {
+        messageSource.setBasenames(basenames);
         messageSource.setDefaultEncoding(StandardCharsets.UTF_8.toString());
         messageSource.setFallbackToSystemLocale(true);
         messageSource.setAlwaysUseMessageFormat(false);
@@ -66,6 +83,11 @@ public class ResourceBundleMessageSourceBenchmark {
         return messageSource;
     }
 
+    private static String getMessage(MessageSource messageSource, String key) {
+        // Pass no argument array at all, so that -prof gc only reports what the MessageSource allocates.
+        return messageSource.getMessage(key, null, Locale.ENGLISH);
+    }
+
     private static String getMessage(MessageSource messageSource, String key, Object... args) {
         return messageSource.getMessage(key, args, Locale.ENGLISH);
     }
@@ -79,6 +101,24 @@ public class ResourceBundleMessageSourceBenchmark {
         bh.consume(getMessage(messageSource, "btn.6"));
     }
 
+    private static void runWithArguments(Blackhole bh, MessageSource messageSource) {
+        requireNonNull(getMessage(messageSource, "msg.1", "foo"));
+        bh.consume(getMessage(messageSource, "msg.2", "foo", 2));
+        bh.consume(getMessage(messageSource, "msg.3", "foo"));
+        bh.consume(getMessage(messageSource, "msg.4", 3, 4));
+        bh.consume(getMessage(messageSource, "msg.5", "foo"));
+        bh.consume(getMessage(messageSource, "msg.6", "bar"));
+    }
+
+    private static void runMissing(Blackhole bh, MessageSource messageSource) {
+        requireNonNull(messageSource.getMessage("optional.1", null, "", Locale.ENGLISH));
+        bh.consume(messageSource.getMessage("optional.2", null, "", Locale.ENGLISH));
+        bh.consume(messageSource.getMessage("optional.3", null, "", Locale.ENGLISH));
+        bh.consume(messageSource.getMessage("optional.4", new Object[] { "foo" }, "", Locale.ENGLISH));
+        bh.consume(messageSource.getMessage("optional.5", new Object[] { "foo" }, "", Locale.ENGLISH));
+        bh.consume(messageSource.getMessage("optional.6", new Object[] { "foo" }, "", Locale.ENGLISH));
+    }
+
     @Benchmark
     public void original(Blackhole bh) {
         run(bh, defaultMessageSource);
@@ -88,4 +128,24 @@ public class ResourceBundleMessageSourceBenchmark {
     public void concurrent(Blackhole bh) {
         run(bh, concurrentMessageSource);
     }
+
+    @Benchmark
+    public void originalWithArguments(Blackhole bh) {
+        runWithArguments(bh, defaultMessageSource);
+    }
+
+    @Benchmark
+    public void concurrentWithArguments(Blackhole bh) {
+        runWithArguments(bh, concurrentMessageSource);
+    }
+
+    @Benchmark
+    public void originalMissing(Blackhole bh) {
+        runMissing(bh, defaultMessageSource);
+    }
+
+    @Benchmark
+    public void concurrentMissing(Blackhole bh) {
+        runMissing(bh, concurrentMessageSource);
+    }
 }
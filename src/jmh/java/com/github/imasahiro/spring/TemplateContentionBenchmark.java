@@ -0,0 +1,93 @@
+/*
+ * Copyright 2017 LINE Corporation
+ *
+ * LINE Corporation licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.github.imasahiro.spring;
+
+import static com.github.imasahiro.spring.ResourceBundleMessageSourceBenchmark.setupMessageSource;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.context.MessageSource;
+import org.springframework.context.support.AbstractResourceBasedMessageSource;
+import org.springframework.context.support.ResourceBundleMessageSource;
+
+/**
+ * Measure the cold path of messages with arguments under contention: 64 threads, released at
+ * the same time, format the {@code msg.*} messages of a fresh message source whose bundle is
+ * loaded during setup, so only the message formats are missing.
+ * {@link ConcurrentResourceBundleMessageSource} compiles each template once while the other
+ * threads wait for it.
+ */
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TemplateContentionBenchmark extends AbstractColdStartBenchmark {
+    private static final int THREAD_COUNT = 64;
+    private static final int CODE_COUNT = 6;
+
+    private static MessageSource setupFormatsMissing(AbstractResourceBasedMessageSource messageSource) {
+        setupMessageSource(messageSource, "messages/messages");
+        // Load the bundle, but not the formats of the messages with arguments.
+        messageSource.getMessage("btn.1", null, Locale.ENGLISH);
+        return messageSource;
+    }
+
+    private void startThreads(MessageSource messageSource) {
+        Object[] args = { "foo", 2 };
+        startThreads(THREAD_COUNT, i -> {
+            for (int j = 1; j <= CODE_COUNT; j++) {
+                messageSource.getMessage("msg." + j, args, Locale.ENGLISH);
+            }
+        });
+    }
+
+    /**
+     * Threads formatting with a fresh {@link ResourceBundleMessageSource}.
+     */
+    @State(Scope.Thread)
+    public static class Original {
+        @Setup(Level.Invocation)
+        public void setUp(TemplateContentionBenchmark benchmark) {
+            benchmark.startThreads(setupFormatsMissing(new ResourceBundleMessageSource()));
+        }
+    }
+
+    /**
+     * Threads formatting with a fresh {@link ConcurrentResourceBundleMessageSource}.
+     */
+    @State(Scope.Thread)
+    public static class Concurrent {
+        @Setup(Level.Invocation)
+        public void setUp(TemplateContentionBenchmark benchmark) {
+            benchmark.startThreads(setupFormatsMissing(new ConcurrentResourceBundleMessageSource()));
+        }
+    }
+
+    @Benchmark
+    public void original(Original threads) throws InterruptedException {
+        runThreads();
+    }
+
+    @Benchmark
+    public void concurrent(Concurrent threads) throws InterruptedException {
+        runThreads();
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ * Copyright 2017 LINE Corporation
+ *
+ * LINE Corporation licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.github.imasahiro.spring;
+
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Concurrent cache with an optional maximum number of entries, evicted with the CLOCK
+ * (second chance) policy.
+ *
+ * <p>Reads are a {@link ConcurrentHashMap} lookup that at most sets the reference bit of
+ * the entry found, without any locking. Entries are queued in insertion order, which the
+ * clock hand walks when an insertion exceeds the maximum: an entry read since the hand
+ * last passed gets its bit cleared and goes back into the queue, any other entry is evicted.
+ * Only one inserting thread evicts at a time; the others return right away.
+ *
+ * <p>Removed entries are only marked in the queue, which is swept once the marked
+ * nodes outnumber the entries, so that a removal costs amortized constant time.
+ *
+ * @param <K> the type of keys
+ * @param <V> the type of values
+ */
+final class ClockCache<K, V> {
+
+    private final ConcurrentMap<K, Node<K, V>> entries = new ConcurrentHashMap<>();
+
+    private final Queue<Node<K, V>> clock = new ConcurrentLinkedQueue<>();
+
+    private final Lock evictionLock = new ReentrantLock();
+
+    private final LongAdder evictions;
+
+    private final Consumer<? super K> removalListener;
+
+    /**
+     * Number of nodes of removed entries that may still be in the queue.
+     */
+    private final AtomicInteger removedNodes = new AtomicInteger();
+
+    private volatile int maximumSize = -1;
+
+    /**
+     * @param evictions the counter to add the number of evicted entries to
+     * @param removalListener called with the key of every removed or evicted entry,
+     *        before an entry with an equal key can be inserted again
+     */
+    ClockCache(LongAdder evictions, Consumer<? super K> removalListener) {
+        this.evictions = evictions;
+        this.removalListener = removalListener;
+    }
+
+    /**
+     * Set the maximum number of entries, or -1 for no limit.
+     */
+    void setMaximumSize(int maximumSize) {
+        this.maximumSize = maximumSize;
+        evictIfNecessary();
+    }
+
+    /**
+     * Return the value cached for the given key, or {@code null} if none.
+     */
+    V get(K key) {
+        Node<K, V> node = entries.get(key);
+        if (node == null) {
+            return null;
+        }
+        if (!node.referenced) {
+            node.referenced = true;
+        }
+        return node.value;
+    }
+
+    /**
+     * Return the value cached for the given key, computing and caching it first if
+     * none. Like {@link ConcurrentHashMap#computeIfAbsent}, the function is applied
+     * at most once per key at a time, and nothing is cached if it returns {@code null}.
+     */
+    V computeIfAbsent(K key, Function<? super K, ? extends V> mappingFunction) {
+        @SuppressWarnings({ "unchecked", "rawtypes" })
+        Node<K, V>[] created = new Node[1];
+        Node<K, V> node = entries.computeIfAbsent(key, k -> {
+            V value = mappingFunction.apply(k);
+            return value != null ? created[0] = new Node<>(k, value) : null;
+        });
+        if (node == null) {
+            return null;
+        }
+        if (node == created[0]) {
+            clock.offer(node);
+            evictIfNecessary();
+        } else if (!node.referenced) {
+            node.referenced = true;
+        }
+        return node.value;
+    }
+
+    /**
+     * Remove the entry of the given key, if any.
+     */
+    void remove(K key) {
+        Node<K, V> node = unlink(key, null);
+        if (node != null && removedNodes.incrementAndGet() > entries.size()) {
+            sweepRemovedNodes();
+        }
+    }
+
+    /**
+     * Remove the entry of the given key, if its node is the given one or any node
+     * if {@code null}, and notify the listener while the key is still locked.
+     *
+     * @return the removed node, or {@code null} if none
+     */
+    private Node<K, V> unlink(K key, Node<K, V> expectedNode) {
+        @SuppressWarnings({ "unchecked", "rawtypes" })
+        Node<K, V>[] removed = new Node[1];
+        entries.computeIfPresent(key, (k, node) -> {
+            if (expectedNode != null && node != expectedNode) {
+                return node;
+            }
+            node.removed = true;
+            removalListener.accept(node.key);
+            removed[0] = node;
+            return null;
+        });
+        return removed[0];
+    }
+
+    private void sweepRemovedNodes() {
+        if (!evictionLock.tryLock()) {
+            return;
+        }
+        try {
+            int swept = 0;
+            for (Iterator<Node<K, V>> iterator = clock.iterator(); iterator.hasNext();) {
+                if (iterator.next().removed) {
+                    iterator.remove();
+                    swept++;
+                }
+            }
+            removedNodes.addAndGet(-swept);
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    private void evictIfNecessary() {
+        int maximumSize = this.maximumSize;
+        if (maximumSize < 0 || entries.size() <= maximumSize || !evictionLock.tryLock()) {
+            return;
+        }
+        try {
+            // Every entry is passed at most twice, even if readers keep setting reference bits.
+            int budget = 2 * entries.size();
+            while (entries.size() > maximumSize && budget-- > 0) {
+                Node<K, V> node = clock.poll();
+                if (node == null) {
+                    break;
+                }
+                if (node.removed) {
+                    removedNodes.decrementAndGet();
+                } else if (node.referenced) {
+                    node.referenced = false;
+                    clock.offer(node);
+                } else if (unlink(node.key, node) != null) {
+                    evictions.increment();
+                }
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    private static final class Node<K, V> {
+
+        final K key;
+
+        final V value;
+
+        volatile boolean referenced;
+
+        volatile boolean removed;
+
+        Node(K key, V value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+}
@@ -18,27 +18,69 @@ package com.github.imasahiro.spring;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.Reader;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
 import java.security.AccessController;
-import java.security.PrivilegedActionException;
-import java.security.PrivilegedExceptionAction;
+import java.security.PrivilegedAction;
 import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.MissingResourceException;
-import java.util.PropertyResourceBundle;
+import java.util.Properties;
 import java.util.ResourceBundle;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.IntStream;
 
 import org.springframework.beans.factory.BeanClassLoaderAware;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
 import org.springframework.context.MessageSource;
+import org.springframework.context.NoSuchMessageException;
 import org.springframework.context.support.AbstractResourceBasedMessageSource;
 import org.springframework.context.support.ReloadableResourceBundleMessageSource;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+import org.springframework.core.io.support.ResourcePatternResolver;
+import org.springframework.util.Assert;
 import org.springframework.util.ClassUtils;
+import org.springframework.util.ObjectUtils;
 
 /**
  * {@link MessageSource} implementation that
@@ -48,7 +90,8 @@ import org.springframework.util.ClassUtils;
  * {@link MessageFormat}.
  *
  * <p>This MessageSource caches both the accessed ResourceBundle instances and
- * the generated MessageFormats for each message. It also implements rendering of
+ * a compiled {@link MessageTemplate} for each message, which formats arguments
+ * without the locking a shared MessageFormat requires. It also implements rendering of
  * no-arg messages without MessageFormat, as supported by the AbstractMessageSource
  * base class. The caching provided by this MessageSource is significantly faster
  * than the built-in caching of the {@code java.util.ResourceBundle} class.
@@ -67,32 +110,114 @@ import org.springframework.util.ClassUtils;
  * @see MessageFormat
  */
 public class ConcurrentResourceBundleMessageSource extends AbstractResourceBasedMessageSource
-        implements BeanClassLoaderAware {
+        implements BeanClassLoaderAware, InitializingBean, DisposableBean {
+
+    /**
+     * Marker cached for codes that none of the bundles define for a Locale.
+     * Compared by identity, so it never clashes with an actual empty message.
+     */
+    private static final String MISSING_MESSAGE = new String("");
+
+    private static final AvailableBundles NO_AVAILABLE_BUNDLES = new AvailableBundles(null);
+
+    /**
+     * Lower bound of the period of background reloads, so that a cache time of 0
+     * does not make the reload thread spin.
+     */
+    private static final long MIN_RELOAD_PERIOD_MILLIS = 100;
 
     private ClassLoader bundleClassLoader;
 
     private ClassLoader beanClassLoader = ClassUtils.getDefaultClassLoader();
 
+    private final MessageSourceMetrics metrics = new MessageSourceMetrics();
+
+    /**
+     * Cache to hold already compiled message templates.
+     * This Map is keyed with a composite {@link MessageFormatKey} of the
+     * ResourceBundle, the message code and the Locale, and holds the
+     * {@link MessageTemplate} values. This resolves a cached template with a
+     * single hash lookup instead of walking three nested Maps. Cached keys are
+     * interned per bundle, so that the templates of a bundle are evicted
+     * without scanning the whole cache.
+     * <p>Keys only hold their ResourceBundle weakly, so that the templates of a
+     * bundle replaced in any way, including by {@link ResourceBundle}'s own cache,
+     * are dropped once the bundle is garbage collected.
+     * @see #getMessageTemplate
+     * @see #setTemplateCacheLimit
+     */
+    private final ClockCache<MessageFormatKey, MessageTemplate> cachedBundleMessageFormats =
+            new ClockCache<>(metrics.templateEvictions, key -> key.templates.keys.remove(key));
+
+    /**
+     * The keys of the cached templates per ResourceBundle, which is only weakly referenced.
+     * Looked up with a {@link LookupKey} of the bundle.
+     */
+    private final Map<Object, BundleTemplates> templatesByBundle = new ConcurrentHashMap<>();
+
+    /**
+     * Queue of the {@link BundleTemplates} whose ResourceBundle has been garbage collected.
+     * @see #purgeMessageTemplates
+     */
+    private final ReferenceQueue<ResourceBundle> collectedBundles = new ReferenceQueue<>();
+
+    /**
+     * Handles of the message codes, with IDs assigned densely from 0 in order of creation.
+     * @see #getMessageKey
+     */
+    private final Map<String, MessageKey> messageKeys = new ConcurrentHashMap<>();
+
+    private final AtomicInteger nextMessageKeyId = new AtomicInteger();
+
+    private int missingMessageCacheLimit = 1024;
+
+    private boolean usePrecompiledCatalogs;
+
+    private boolean reloadInBackground;
+
+    private volatile ScheduledExecutorService reloadExecutor;
+
+    private boolean watchBundleFiles;
+
+    private volatile WatchService watchService;
+
+    /**
+     * Basenames with bundle files in each watched directory.
+     * @see #setWatchBundleFiles
+     */
+    private final Map<Path, Set<String>> watchedBasenames = new ConcurrentHashMap<>();
+
+    private boolean useMessageSnapshot;
+
+    private int messageSnapshotLimit = 32;
+
+    private Executor bundleLoadExecutor;
+
+    private int localeCacheLimit = 1024;
+
+    private boolean precomputeLocaleResolution;
+
+    private Locale[] warmUpLocales;
+
+    /**
+     * The caches of the bundles loaded through the {@link #getBundleClassLoader bundle ClassLoader}.
+     */
+    private final BundleCaches bundleCaches = new BundleCaches(null);
+
+    private boolean cachePerContextClassLoader;
+
     /**
-     * Cache to hold loaded ResourceBundles.
-     * This Map is keyed with the bundle basename, which holds a Map that is
-     * keyed with the Locale and in turn holds the ResourceBundle instances.
-     * This allows for very efficient hash lookups, significantly faster
-     * than the ResourceBundle class's own cache.
+     * The caches of the bundles loaded through other context ClassLoaders, which are only
+     * weakly referenced by their {@link WeakKey keys}. Looked up with a {@link LookupKey}.
+     * @see #setCachePerContextClassLoader
      */
-    private final Map<String, Map<Locale, ResourceBundle>> cachedResourceBundles =
-            new ConcurrentHashMap<>();
+    private final Map<Object, BundleCaches> bundleCachesByClassLoader = new ConcurrentHashMap<>();
 
     /**
-     * Cache to hold already generated MessageFormats.
-     * This Map is keyed with the ResourceBundle, which holds a Map that is
-     * keyed with the message code, which in turn holds a Map that is keyed
-     * with the Locale and holds the MessageFormat values. This allows for
-     * very efficient hash lookups without concatenated keys.
-     * @see #getMessageFormat
+     * Queue of the keys of {@link #bundleCachesByClassLoader} whose ClassLoader has been
+     * garbage collected.
      */
-    private final Map<ResourceBundle, Map<String, Map<Locale, MessageFormat>>> cachedBundleMessageFormats =
-            new ConcurrentHashMap<>();
+    private final ReferenceQueue<ClassLoader> collectedClassLoaders = new ReferenceQueue<>();
 
     /**
      * Set the ClassLoader to load resource bundles with.
@@ -117,176 +242,1672 @@ public class ConcurrentResourceBundleMessageSource extends AbstractResourceBased
         return bundleClassLoader != null ? bundleClassLoader : beanClassLoader;
     }
 
+    /**
+     * Set the maximum number of code and Locale combinations to remember as
+     * not defined by any of the bundles, so that repeated lookups of absent
+     * (e.g. optional) codes skip iterating the basenames.
+     *
+     * <p>Default is 1024. Once the limit is exceeded, the combinations not looked up
+     * since the last pass of the CLOCK hand are evicted, see
+     * {@link MessageSourceMetrics.Snapshot#getMissingMessageEvictions()}. A value of 0
+     * disables caching of missing codes. Only applies when caching forever; the cache
+     * is cleared whenever bundles are reloaded.
+     */
+    public void setMissingMessageCacheLimit(int missingMessageCacheLimit) {
+        this.missingMessageCacheLimit = missingMessageCacheLimit;
+        this.bundleCaches.cachedMissingMessages.setMaximumSize(missingMessageCacheLimit);
+    }
+
+    /**
+     * Set the maximum number of compiled message templates to cache.
+     *
+     * <p>Default is -1, meaning no limit. Each combination of bundle, code and
+     * requested Locale takes an entry, so a source serving Locales taken from
+     * requests, e.g. from {@code Accept-Language}, should set a limit. Once it
+     * is exceeded, templates not used since the last pass of the CLOCK hand are
+     * evicted, see {@link MessageSourceMetrics.Snapshot#getTemplateEvictions()}.
+     * Lookups of cached templates never lock.
+     */
+    public void setTemplateCacheLimit(int templateCacheLimit) {
+        this.cachedBundleMessageFormats.setMaximumSize(templateCacheLimit);
+    }
+
+    /**
+     * Set whether to load precompiled {@link MessageCatalog message catalogs}
+     * instead of parsing {@code .properties} files, where a catalog exists.
+     *
+     * <p>Default is "false". Catalogs are generated at build time by
+     * {@link MessageCatalogCompiler} and found next to the properties files,
+     * e.g. {@code messages_en.catalog} for {@code messages_en.properties}.
+     * Catalogs on the file system are memory-mapped instead of being read
+     * into the heap.
+     *
+     * <p>A catalog is a snapshot of its properties file, so catalogs are only used
+     * when caching forever and not {@link #setWatchBundleFiles watching bundle files}:
+     * bundles that may be reloaded are always read from their properties files. A
+     * catalog compiled with another encoding than the {@link #setDefaultEncoding
+     * default encoding} is ignored as well.
+     */
+    public void setUsePrecompiledCatalogs(boolean usePrecompiledCatalogs) {
+        this.usePrecompiledCatalogs = usePrecompiledCatalogs;
+    }
+
+    /**
+     * Return whether to load precompiled message catalogs where they exist.
+     */
+    protected boolean isUsePrecompiledCatalogs() {
+        return usePrecompiledCatalogs;
+    }
+
+    /**
+     * Set whether to check cached bundles for changes in the background,
+     * instead of on the request threads.
+     *
+     * <p>Default is "false": with a non-negative {@link #setCacheSeconds cache time},
+     * every lookup goes through {@link ResourceBundle#getBundle}, which checks for
+     * expired bundles on the calling thread. If "true", lookups are always served from
+     * the caches of this MessageSource, and a background thread checks the cached
+     * bundles every cache period, atomically swapping in bundles that have changed.
+     * Has no effect when caching forever.
+     */
+    public void setReloadInBackground(boolean reloadInBackground) {
+        this.reloadInBackground = reloadInBackground;
+    }
+
+    /**
+     * Set whether to watch the bundle files on the filesystem for changes.
+     *
+     * <p>Default is "false", which checks bundles for changes every
+     * {@link #setCacheSeconds cache period}, by their last-modified timestamps. If "true",
+     * the directories of bundle files loaded from the filesystem, e.g. of an exploded
+     * classpath, are watched with a {@link WatchService} and lookups are always served
+     * from the caches of this MessageSource, regardless of the cache time. When a bundle
+     * file is changed, added or removed, a background thread reloads exactly the cached
+     * bundles that resolve through it, and drops their messages and templates. Bundles
+     * from jars are cached forever.
+     */
+    public void setWatchBundleFiles(boolean watchBundleFiles) {
+        this.watchBundleFiles = watchBundleFiles;
+    }
+
+    /**
+     * Set whether to serve messages from an immutable snapshot of the whole catalog.
+     *
+     * <p>Default is "false", which fills the caches message by message. If "true", the
+     * first lookup for a Locale resolves every message of every basename for it, and
+     * publishes them along with their compiled templates as a new immutable snapshot.
+     * Lookups then read that snapshot without any synchronization. Reloads build and
+     * swap in a complete new snapshot. Only applies when caching forever or
+     * {@link #setReloadInBackground reloading in the background}.
+     *
+     * <p>Requested Locales that resolve to the same bundles for every basename share
+     * their messages in the snapshot. The templates of the snapshot are compiled for the
+     * first of these Locales requested; the others use the regular template cache.
+     * @see #setMessageSnapshotLimit
+     */
+    public void setUseMessageSnapshot(boolean useMessageSnapshot) {
+        this.useMessageSnapshot = useMessageSnapshot;
+    }
+
+    /**
+     * Set the maximum number of bundle combinations to hold in the
+     * {@link #setUseMessageSnapshot message snapshot}.
+     *
+     * <p>Default is 32. Each combination of bundles resolved for the basenames takes a
+     * copy of all of their messages. Once the limit is reached, Locales resolving to
+     * other bundles are served from the regular caches. A value of -1 means no limit.
+     */
+    public void setMessageSnapshotLimit(int messageSnapshotLimit) {
+        this.messageSnapshotLimit = messageSnapshotLimit;
+    }
+
+    /**
+     * Set the maximum number of requested Locales to remember the canonical Locale of.
+     *
+     * <p>Each requested Locale is mapped to the first Locale requested that resolves to the
+     * same bundles, e.g. {@code en_US} and {@code en_US_#u-ca-gregory} to {@code en} when only
+     * {@code messages_en.properties} exists, and the bundles and resolved messages are cached
+     * under that canonical Locale only. So they take one set of entries per combination of
+     * bundle files, however many distinct Locales are requested.
+     *
+     * <p>Default is 1024. Once the limit is exceeded, the Locales not requested since the last
+     * pass of the CLOCK hand are evicted, see {@link MessageSourceMetrics.Snapshot#getLocaleEvictions()},
+     * and mapped again on their next request. A value of -1 means no limit. Only applies when
+     * caching forever or {@link #setReloadInBackground reloading in the background}.
+     */
+    public void setLocaleCacheLimit(int localeCacheLimit) {
+        this.localeCacheLimit = localeCacheLimit;
+        this.bundleCaches.canonicalLocales.setMaximumSize(localeCacheLimit);
+    }
+
+    /**
+     * Set whether to look up bundles only for the Locales that have a bundle file.
+     *
+     * <p>Default is "false", which lets {@link ResourceBundle#getBundle} probe the
+     * class loader for every candidate Locale of a requested Locale, e.g. for
+     * {@code messages_en_US}, {@code messages_en} and {@code messages}, plus the
+     * candidates of the fallback Locale. If "true", the {@code .properties},
+     * {@value MessageCatalog#FILE_EXTENSION} and {@code .class} files of each basename
+     * are listed once, on initialization or first use, and the candidate Locales
+     * without a file are skipped. Basenames in the root of the classpath, which
+     * cannot be listed reliably across jars, and basenames without any file found
+     * are looked up as usual. Bundle files added at runtime are not picked up.
+     */
+    public void setPrecomputeLocaleResolution(boolean precomputeLocaleResolution) {
+        this.precomputeLocaleResolution = precomputeLocaleResolution;
+    }
+
+    /**
+     * Set the Executor to load the bundles of all basenames in parallel with.
+     *
+     * <p>Default is none, which loads the bundles of a Locale one by one on the
+     * requesting thread, as the basenames are walked. If set, the first bundle cache
+     * miss for a Locale loads the bundles of all basenames on this Executor, e.g.
+     * {@link ForkJoinPool#commonPool()} or a virtual thread per task executor, and
+     * waits for all of them before answering. Only applies when caching forever or
+     * {@link #setReloadInBackground reloading in the background}.
+     */
+    public void setBundleLoadExecutor(Executor bundleLoadExecutor) {
+        this.bundleLoadExecutor = bundleLoadExecutor;
+    }
+
+    /**
+     * Set whether to load bundles with the context ClassLoader of the calling thread,
+     * with separate caches per ClassLoader.
+     *
+     * <p>Default is "false", which loads all bundles with the
+     * {@link #setBeanClassLoader bean ClassLoader}. If "true", lookups on a thread whose
+     * context ClassLoader is another one, e.g. that of a plugin or tenant, load the bundles
+     * with that ClassLoader and cache them, along with everything derived from them,
+     * separately. These caches only reference their ClassLoader weakly, so they are
+     * released once a discarded ClassLoader is garbage collected, unless bundles defined as
+     * classes by it keep it reachable. Lookups through the bean ClassLoader take the same
+     * path as by default; other ClassLoaders cost one more hash lookup per call.
+     */
+    public void setCachePerContextClassLoader(boolean cachePerContextClassLoader) {
+        this.cachePerContextClassLoader = cachePerContextClassLoader;
+    }
+
+    /**
+     * Set the Locales to warm up the caches for when this MessageSource is initialized.
+     *
+     * <p>Default is none, which leaves all caches to be filled lazily by the first
+     * requests. Otherwise, the bundles of every basename are loaded and all of their
+     * messages precompiled for the given Locales before the application context
+     * finishes refreshing.
+     * @see #warmUp
+     */
+    public void setWarmUpLocales(Locale... warmUpLocales) {
+        this.warmUpLocales = warmUpLocales;
+    }
+
     @Override
     public void setBeanClassLoader(ClassLoader classLoader) {
         beanClassLoader = classLoader != null ? classLoader : ClassUtils.getDefaultClassLoader();
     }
 
+    /**
+     * Stop checking bundles for changes in the background and watching
+     * bundle files, if started.
+     */
+    @Override
+    public void destroy() {
+        ScheduledExecutorService reloadExecutor = this.reloadExecutor;
+        if (reloadExecutor != null) {
+            reloadExecutor.shutdownNow();
+        }
+        WatchService watchService = this.watchService;
+        if (watchService != null) {
+            try {
+                watchService.close();
+            } catch (IOException ex) {
+                logger.warn("Failed to stop watching bundle files for " + this, ex);
+            }
+        }
+    }
+
+    /**
+     * Return a snapshot of the hit and miss counters of the caches of this
+     * MessageSource, along with bundle loading and template creation statistics.
+     */
+    public MessageSourceMetrics.Snapshot getMetrics() {
+        return metrics.snapshot();
+    }
+
+    /**
+     * List the available bundles if {@link #setPrecomputeLocaleResolution precomputing
+     * the locale resolution}, and warm up the caches for the configured
+     * {@link #setWarmUpLocales warm-up Locales}, if any.
+     */
+    @Override
+    public void afterPropertiesSet() {
+        if (this.precomputeLocaleResolution) {
+            for (String basename : getBasenameSet()) {
+                getAvailableBundles(this.bundleCaches, basename);
+            }
+        }
+        if (!ObjectUtils.isEmpty(warmUpLocales)) {
+            warmUp(Arrays.asList(warmUpLocales));
+        }
+    }
+
+    /**
+     * Load the bundles of every basename for the given Locales and precompile all
+     * of their messages, in parallel on the common {@link ForkJoinPool}.
+     *
+     * @param locales the Locales to warm up the caches for
+     *
+     * @return how many entries were created and how long it took
+     */
+    public WarmUpResult warmUp(Collection<Locale> locales) {
+        long startTime = System.nanoTime();
+        // The common pool threads may have other context ClassLoaders.
+        BundleCaches caches = getBundleCaches();
+        List<Locale> localeList = new ArrayList<>(locales);
+        List<String> basenames = new ArrayList<>(getBasenameSet());
+        LongAdder bundleCount = new LongAdder();
+        LongAdder templateCount = new LongAdder();
+        LongAdder messageCount = new LongAdder();
+
+        // Load every (basename, Locale) combination and compile its messages.
+        IntStream.range(0, localeList.size() * basenames.size()).parallel().forEach(i -> {
+            Locale locale = localeList.get(i / basenames.size());
+            ResourceBundle bundle = getResourceBundle(caches, basenames.get(i % basenames.size()), locale);
+            if (bundle != null) {
+                bundleCount.increment();
+                for (String code : bundle.keySet()) {
+                    try {
+                        // Only counts the templates compiled by this call.
+                        getMessageTemplate(bundle, code, locale, templateCount);
+                    } catch (IllegalArgumentException ex) {
+                        // Not a valid MessageFormat pattern, but may still be used without arguments.
+                        if (logger.isDebugEnabled()) {
+                            logger.debug("Skipped warming up message [" + code + "]: " + ex.getMessage());
+                        }
+                    }
+                }
+            }
+        });
+        // Resolve the no-arg messages, which depend on the order of the basenames.
+        localeList.parallelStream().forEach(locale -> {
+            if (isUseMessageSnapshot()) {
+                Map<String, MessageSnapshot.Entry> messages =
+                        getSnapshotMessages(caches, getBundleChainLocale(caches, locale));
+                if (messages != null) {
+                    messageCount.add(messages.size());
+                    return;
+                }
+            }
+            ResourceBundle[] bundles = getResourceBundles(caches, locale);
+            Set<String> codes = new HashSet<>();
+            for (ResourceBundle bundle : bundles) {
+                if (bundle != null) {
+                    codes.addAll(bundle.keySet());
+                }
+            }
+            for (String code : codes) {
+                if (resolveMessage(caches, code, locale, bundles) != null) {
+                    messageCount.increment();
+                }
+            }
+        });
+
+        WarmUpResult result = new WarmUpResult(bundleCount.intValue(), templateCount.intValue(),
+                                               messageCount.intValue(), System.nanoTime() - startTime);
+        if (logger.isInfoEnabled()) {
+            logger.info("Warmed up " + this + " for " + localeList + ": " + result);
+        }
+        return result;
+    }
+
     /**
      * Resolves the given message code as key in the registered resource bundles,
      * returning the value found in the bundle as-is (without MessageFormat parsing).
+     * When caching forever, the resolved value is cached per code and Locale.
      */
     @Override
     protected String resolveCodeWithoutArguments(String code, Locale locale) {
-        Set<String> basenames = getBasenameSet();
-        for (String basename : basenames) {
-            ResourceBundle bundle = getResourceBundle(basename, locale);
-            if (bundle != null) {
-                String result = getStringOrNull(bundle, code);
-                if (result != null) {
-                    return result;
-                }
+        return resolveMessage(getBundleCaches(), code, locale, null);
+    }
+
+    /**
+     * Formats messages with arguments through a cached {@link MessageTemplate},
+     * which needs no synchronization, instead of the shared {@link MessageFormat}
+     * that {@link #resolveCode} would hand out. Messages that cannot be resolved
+     * here fall back to the common messages and the parent MessageSource.
+     */
+    @Override
+    protected String getMessageInternal(String code, Object[] args, Locale locale) {
+        if (code == null) {
+            return null;
+        }
+        Locale localeToUse = locale != null ? locale : Locale.getDefault();
+        if (!isAlwaysUseMessageFormat() && ObjectUtils.isEmpty(args)) {
+            String message = resolveCodeWithoutArguments(code, localeToUse);
+            if (message != null) {
+                return message;
+            }
+        } else {
+            MessageTemplate template = resolveTemplate(getBundleCaches(), code, localeToUse, null);
+            if (template != null) {
+                return template.format(resolveArguments(args, localeToUse));
             }
         }
-        return null;
+        return getCommonOrParentMessage(code, args, localeToUse);
+    }
+
+    /**
+     * Return the message of a code that the bundles of this MessageSource do not define,
+     * from the common messages or the parent MessageSource, like the fallback of
+     * {@code AbstractMessageSource.getMessageInternal} but without looking the code up
+     * in the bundles again.
+     *
+     * @return the message, or {@code null} if neither defines the code
+     */
+    private String getCommonOrParentMessage(String code, Object[] args, Locale locale) {
+        Properties commonMessages = getCommonMessages();
+        if (commonMessages != null) {
+            String commonMessage = commonMessages.getProperty(code);
+            if (commonMessage != null) {
+                return formatMessage(commonMessage, args, locale);
+            }
+        }
+        Object[] argsToUse = isAlwaysUseMessageFormat() || !ObjectUtils.isEmpty(args) ?
+                             resolveArguments(args, locale) : args;
+        return getMessageFromParent(code, argsToUse, locale);
+    }
+
+    /**
+     * Return the message of a code that the bundles of this MessageSource do not define,
+     * like {@link #getMessage(String, Object[], Locale)} but without looking the code up
+     * in the bundles again, so that the miss is only counted once.
+     *
+     * @throws NoSuchMessageException if neither the common messages nor the parent
+     *         MessageSource define the code, and the code is not used as default message
+     */
+    private String getFallbackMessage(String code, Object[] args, Locale locale) {
+        String message = getFallbackMessageOrNull(code, args, locale);
+        if (message == null) {
+            throw new NoSuchMessageException(code, locale);
+        }
+        return message;
+    }
+
+    /**
+     * Return the message of a code that the bundles of this MessageSource do not define,
+     * like {@link #getMessage(String, Object[], String, Locale)} with a {@code null}
+     * default message.
+     *
+     * @return the message, or {@code null} if none found
+     * @see #getFallbackMessage
+     */
+    private String getFallbackMessageOrNull(String code, Object[] args, Locale locale) {
+        if (code != null) {
+            String message = getCommonOrParentMessage(code, args, locale != null ? locale : Locale.getDefault());
+            if (message != null) {
+                return message;
+            }
+        }
+        return getDefaultMessage(code);
     }
 
     /**
      * Resolves the given message code as key in the registered resource bundles,
-     * using a cached MessageFormat instance per message code.
+     * returning a new MessageFormat created from the cached template, so that
+     * callers never contend on a shared instance.
      */
     @Override
     protected MessageFormat resolveCode(String code, Locale locale) {
-        Set<String> basenames = getBasenameSet();
-        for (String basename : basenames) {
-            ResourceBundle bundle = getResourceBundle(basename, locale);
-            if (bundle != null) {
-                MessageFormat messageFormat = getMessageFormat(bundle, code, locale);
-                if (messageFormat != null) {
-                    return messageFormat;
+        MessageTemplate template = resolveTemplate(getBundleCaches(), code, locale, null);
+        return template != null ? template.toMessageFormat() : null;
+    }
+
+    /**
+     * Resolve the given message and append it to the given Appendable, like
+     * {@link #getMessage(String, Object[], Locale)} but without creating the message
+     * as an intermediate String when it comes from the bundles of this MessageSource.
+     * Placeholders are substituted directly into {@code out}.
+     *
+     * @param out the Appendable to write the message to, e.g. a response Writer
+     * @param code the message code to look up
+     * @param args the arguments of the message, or {@code null} if none
+     * @param locale the Locale in which to do the lookup
+     *
+     * @throws NoSuchMessageException if the message wasn't found
+     * @throws IOException if appending to {@code out} fails
+     */
+    public void appendMessage(Appendable out, String code, Object[] args, Locale locale) throws IOException {
+        if (code != null) {
+            Locale localeToUse = locale != null ? locale : Locale.getDefault();
+            if (!isAlwaysUseMessageFormat() && ObjectUtils.isEmpty(args)) {
+                String message = resolveMessage(getBundleCaches(), code, localeToUse, null);
+                if (message != null) {
+                    out.append(message);
+                    return;
+                }
+            } else {
+                MessageTemplate template = resolveTemplate(getBundleCaches(), code, localeToUse, null);
+                if (template != null) {
+                    template.formatTo(out, resolveArguments(args, localeToUse));
+                    return;
                 }
             }
         }
-        return null;
+        // Common messages, parent MessageSource and code as default message
+        out.append(getFallbackMessage(code, args, locale));
     }
 
     /**
-     * Return a ResourceBundle for the given basename and code,
-     * fetching already generated MessageFormats from the cache.
+     * Resolve the given message and append it to the given StringBuilder.
      *
-     * @param basename the basename of the ResourceBundle
-     * @param locale the Locale to find the ResourceBundle for
+     * @throws NoSuchMessageException if the message wasn't found
      *
-     * @return the resulting ResourceBundle, or {@code null} if none
-     *         found for the given basename and Locale
+     * @see #appendMessage(Appendable, String, Object[], Locale)
      */
-    private ResourceBundle getResourceBundle(String basename, Locale locale) {
-        if (getCacheMillis() >= 0) {
-            // Fresh ResourceBundle.getBundle call in order to let ResourceBundle
-            // do its native caching, at the expense of more extensive lookup steps.
-            return doGetBundle(basename, locale);
-        } else {
-            // Cache forever: prefer locale cache over repeated getBundle calls.
-            Map<Locale, ResourceBundle> localeMap = this.cachedResourceBundles.get(basename);
-            if (localeMap != null) {
-                ResourceBundle bundle = localeMap.get(locale);
-                if (bundle != null) {
-                    return bundle;
-                }
+    public void appendMessage(StringBuilder out, String code, Object[] args, Locale locale) {
+        try {
+            appendMessage((Appendable) out, code, args, locale);
+        } catch (IOException ex) {
+            // StringBuilder never throws IOException.
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Resolve the given message and write it to the given OutputStream encoded as UTF-8.
+     *
+     * <p>When caching forever or reloading in the background, the encoded bytes of
+     * no-arg messages from the bundles are cached per code and Locale, so static
+     * messages are encoded once instead of on every write. Other messages are
+     * resolved like {@link #getMessage(String, Object[], Locale)} and then encoded.
+     *
+     * <p>The cached array is passed to {@link OutputStream#write(byte[])} as-is and shared
+     * by all writes of the message, so {@code out} must neither modify it nor keep it
+     * after returning, which the OutputStreams of the JDK never do. Write to a
+     * {@link #writeMessage(WritableByteChannel, String, Object[], Locale) channel}
+     * where that cannot be relied on.
+     *
+     * @param out the OutputStream to write the message to
+     * @param code the message code to look up
+     * @param args the arguments of the message, or {@code null} if none
+     * @param locale the Locale in which to do the lookup
+     *
+     * @throws NoSuchMessageException if the message wasn't found
+     * @throws IOException if writing to {@code out} fails
+     */
+    public void writeMessage(OutputStream out, String code, Object[] args, Locale locale) throws IOException {
+        out.write(getMessageBytes(code, args, locale));
+    }
+
+    /**
+     * Resolve the given message and write it to the given channel encoded as UTF-8.
+     *
+     * <p>Cached messages are written from a read-only view of the cached array,
+     * so the channel cannot modify it.
+     *
+     * @throws NoSuchMessageException if the message wasn't found
+     * @throws IOException if writing to {@code channel} fails
+     *
+     * @see #writeMessage(OutputStream, String, Object[], Locale)
+     */
+    public void writeMessage(WritableByteChannel channel, String code, Object[] args, Locale locale)
+            throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(getMessageBytes(code, args, locale)).asReadOnlyBuffer();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Return the UTF-8 encoding of the given message. The returned array
+     * may be cached and must not be modified.
+     */
+    private byte[] getMessageBytes(String code, Object[] args, Locale locale) {
+        if (code == null || isAlwaysUseMessageFormat() || !ObjectUtils.isEmpty(args) || !isUseLocalCaches()) {
+            return getMessage(code, args, locale).getBytes(StandardCharsets.UTF_8);
+        }
+        Locale localeToUse = locale != null ? locale : Locale.getDefault();
+        BundleCaches caches = getBundleCaches();
+        // No-arg messages only depend on the bundles, so Locales sharing them share the encodings.
+        Locale canonicalLocale = getCanonicalLocale(caches, localeToUse);
+        Map<Locale, Map<String, byte[]>> cachedMessageBytes = caches.cachedMessageBytes;
+        Map<String, byte[]> localeMessageBytes = cachedMessageBytes.get(canonicalLocale);
+        if (localeMessageBytes == null) {
+            localeMessageBytes = cachedMessageBytes.computeIfAbsent(canonicalLocale, l -> new ConcurrentHashMap<>());
+        }
+        byte[] bytes = localeMessageBytes.get(code);
+        if (bytes != null) {
+            return bytes;
+        }
+        String message = resolveMessage(caches, code, localeToUse, null);
+        if (message == null) {
+            // Common messages, parent MessageSource and code as default message
+            return getFallbackMessage(code, null, locale).getBytes(StandardCharsets.UTF_8);
+        }
+        bytes = message.getBytes(StandardCharsets.UTF_8);
+        localeMessageBytes.put(code, bytes);
+        return bytes;
+    }
+
+    /**
+     * Return the handle of the given message code, creating it on first use.
+     *
+     * <p>The handle is bound to a dense integer ID, which no-arg lookups through
+     * {@link #getMessageByKey} use as an index into a
+     * per-Locale array instead of hashing the code. Handles are never released,
+     * so only create them for the codes of a known set of messages.
+     *
+     * @param code the message code
+     *
+     * @return the handle of the code, the same instance for every call with an equal code
+     */
+    public MessageKey getMessageKey(String code) {
+        Assert.notNull(code, "Code must not be null");
+        MessageKey key = this.messageKeys.get(code);
+        if (key != null) {
+            return key;
+        }
+        return this.messageKeys.computeIfAbsent(
+                code, c -> new MessageKey(this, c, this.nextMessageKeyId.getAndIncrement()));
+    }
+
+    /**
+     * Resolve the message of the given handle, like
+     * {@link #getMessage(String, Object[], Locale)} with the code of the handle.
+     *
+     * <p>When caching forever or reloading in the background, a no-arg message that the
+     * bundles define is served from a per-Locale array indexed by the handle's ID.
+     * A code that no bundle defines is remembered in the bounded cache of missing
+     * codes instead, like for lookups by code.
+     *
+     * @param key the handle of the message code, created by this MessageSource
+     * @param args the arguments of the message, or {@code null} if none
+     * @param locale the Locale in which to do the lookup
+     *
+     * @return the resolved message
+     *
+     * @throws NoSuchMessageException if the message wasn't found
+     */
+    public String getMessageByKey(MessageKey key, Object[] args, Locale locale) throws NoSuchMessageException {
+        Assert.isTrue(key.getMessageSource() == this, "MessageKey was created by another MessageSource");
+        if (isAlwaysUseMessageFormat() || !ObjectUtils.isEmpty(args) || !isUseLocalCaches()) {
+            return getMessage(key.getCode(), args, locale);
+        }
+        Locale localeToUse = locale != null ? locale : Locale.getDefault();
+        BundleCaches caches = getBundleCaches();
+        // No-arg messages only depend on the bundles, so Locales sharing them share the array.
+        Locale canonicalLocale = getCanonicalLocale(caches, localeToUse);
+        Map<Locale, KeyedMessages> keyedMessages = caches.cachedKeyedMessages;
+        KeyedMessages messages = keyedMessages.get(canonicalLocale);
+        if (messages == null) {
+            messages = keyedMessages.computeIfAbsent(canonicalLocale,
+                                                     l -> new KeyedMessages(this.messageKeys.size()));
+        }
+        String message = messages.get(key.getId());
+        if (message == null) {
+            // Misses are remembered by resolveMessage, within the missing message cache limit.
+            message = resolveMessage(caches, key.getCode(), localeToUse, null);
+            if (message != null) {
+                messages.put(key.getId(), message);
             }
-            try {
-                ResourceBundle bundle = doGetBundle(basename, locale);
-                if (localeMap == null) {
-                    localeMap = new ConcurrentHashMap<>();
-                    Map<Locale, ResourceBundle> existing = cachedResourceBundles.putIfAbsent(
-                            basename, localeMap);
-                    if (existing != null) {
-                        localeMap = existing;
-                    }
+        }
+        if (message == null) {
+            // Common messages, parent MessageSource and code as default message
+            return getFallbackMessage(key.getCode(), null, locale);
+        }
+        return message;
+    }
+
+    /**
+     * Resolve the given message codes for one Locale in a single call.
+     *
+     * <p>Each message is resolved like {@link #getMessage(String, Object[], String, Locale)}
+     * with a {@code null} default message, but the ResourceBundles of the Locale are
+     * looked up once per basename for the whole batch instead of once per code.
+     *
+     * @param codes the message codes to look up
+     * @param args the arguments of each code, in the same order as {@code codes};
+     *             may be {@code null}, as may the arguments of any single code
+     * @param locale the Locale in which to do the lookup
+     *
+     * @return the resolved messages, in the same order as {@code codes}, with
+     *         {@code null} for codes that could not be resolved
+     */
+    public String[] getMessages(String[] codes, Object[][] args, Locale locale) {
+        Assert.isTrue(args == null || args.length == codes.length,
+                      "Arguments must be aligned with the message codes");
+        Locale localeToUse = locale != null ? locale : Locale.getDefault();
+        BundleCaches caches = getBundleCaches();
+        ResourceBundle[] bundles = getResourceBundles(caches, localeToUse);
+        String[] messages = new String[codes.length];
+        for (int i = 0; i < codes.length; i++) {
+            String code = codes[i];
+            Object[] codeArgs = args != null ? args[i] : null;
+            String message = null;
+            if (code != null) {
+                if (!isAlwaysUseMessageFormat() && ObjectUtils.isEmpty(codeArgs)) {
+                    message = resolveMessage(caches, code, localeToUse, bundles);
+                } else {
+                    MessageTemplate template = resolveTemplate(caches, code, localeToUse, bundles);
+                    if (template != null) {
+                        message = template.format(resolveArguments(codeArgs, localeToUse));
+                    }
                 }
-                localeMap.put(locale, bundle);
-                return bundle;
-            } catch (MissingResourceException ex) {
-                if (logger.isWarnEnabled()) {
-                    logger.warn("ResourceBundle [" + basename + "] not found for MessageSource: " + ex
-                            .getMessage());
+            }
+            // Common messages, parent MessageSource and code as default message
+            messages[i] = message != null ? message : getFallbackMessageOrNull(code, codeArgs, locale);
+        }
+        return messages;
+    }
+
+    /**
+     * Resolve the given no-arg message codes for one Locale in a single call.
+     *
+     * @param codes the message codes to look up
+     * @param locale the Locale in which to do the lookup
+     *
+     * @return the resolved messages keyed by code, in iteration order of
+     *         {@code codes}, with {@code null} for codes that could not be resolved
+     *
+     * @see #getMessages(String[], Object[][], Locale)
+     */
+    public Map<String, String> getMessages(Collection<String> codes, Locale locale) {
+        String[] codeArray = codes.toArray(new String[0]);
+        String[] messages = getMessages(codeArray, null, locale);
+        Map<String, String> result = new LinkedHashMap<>(codeArray.length * 4 / 3 + 1);
+        for (int i = 0; i < codeArray.length; i++) {
+            result.put(codeArray[i], messages[i]);
+        }
+        return result;
+    }
+
+    /**
+     * Resolve the given message code as key in the registered resource bundles,
+     * returning the value found in the bundle as-is.
+     *
+     * @param caches the caches of the ClassLoader to look up the bundles with
+     * @param code the message code to look up
+     * @param locale the Locale in which to do the lookup
+     * @param bundles the bundles of all basenames for the Locale, as returned by
+     *                {@link #getResourceBundles}, or {@code null} to look them up one by one
+     *
+     * @return the resolved message, or {@code null} if not found
+     */
+    private String resolveMessage(BundleCaches caches, String code, Locale locale, ResourceBundle[] bundles) {
+        if (isUseMessageSnapshot()) {
+            Map<String, MessageSnapshot.Entry> snapshotMessages =
+                    getSnapshotMessages(caches, getBundleChainLocale(caches, locale));
+            if (snapshotMessages != null) {
+                MessageSnapshot.Entry entry = snapshotMessages.get(code);
+                if (entry == null) {
+                    this.metrics.missingCodes.increment();
+                    return null;
                 }
-                // Assume bundle not found
-                // -> do NOT throw the exception to allow for checking parent message source.
+                return entry.message;
+            }
+        }
+        // No-arg messages only depend on the bundles, so Locales sharing them share the cache entries.
+        locale = getCanonicalLocale(caches, locale);
+        Map<String, LocalizedMessages> messages = isUseLocalCaches() ? caches.cachedMessages : null;
+        if (messages != null) {
+            String result = getCachedMessage(messages, code, locale);
+            if (result == MISSING_MESSAGE) {
+                touchMissingMessage(caches, messages, code, locale);
+                this.metrics.missingMessageCacheHits.increment();
+                this.metrics.missingCodes.increment();
                 return null;
             }
+            if (result != null) {
+                this.metrics.messageCacheHits.increment();
+                return result;
+            }
+            this.metrics.messageCacheMisses.increment();
+        }
+        int index = 0;
+        for (String basename : getBasenameSet()) {
+            ResourceBundle bundle = bundles != null ? bundles[index++] : getResourceBundle(caches, basename, locale);
+            if (bundle != null) {
+                String result = getStringOrNull(bundle, code);
+                if (result != null) {
+                    if (messages != null) {
+                        cacheMessage(messages, code, locale, result);
+                    }
+                    return result;
+                }
+            }
+        }
+        this.metrics.missingCodes.increment();
+        if (messages != null) {
+            cacheMissingMessage(caches, messages, code, locale);
+        }
+        return null;
+    }
+
+    /**
+     * Resolves the given message code as key in the registered resource bundles,
+     * using a cached MessageTemplate instance per message code.
+     *
+     * @see #resolveMessage
+     */
+    private MessageTemplate resolveTemplate(BundleCaches caches, String code, Locale locale,
+                                            ResourceBundle[] bundles) {
+        // Templates format numbers and dates for the requested Locale, so only the
+        // bundles and missing codes are shared with the other Locales of the same bundles.
+        if (isUseMessageSnapshot()) {
+            Locale chainLocale = getBundleChainLocale(caches, locale);
+            Map<String, MessageSnapshot.Entry> snapshotMessages = getSnapshotMessages(caches, chainLocale);
+            if (snapshotMessages != null) {
+                MessageSnapshot.Entry entry = snapshotMessages.get(code);
+                if (entry == null) {
+                    this.metrics.missingCodes.increment();
+                    return null;
+                }
+                if (chainLocale.equals(locale)) {
+                    // Compiling again throws the same exception as for an invalid pattern outside snapshots.
+                    return entry.template != null ? entry.template : MessageTemplate.compile(entry.message, locale);
+                }
+            }
+        }
+        Locale canonicalLocale = getCanonicalLocale(caches, locale);
+        Map<String, LocalizedMessages> messages = isUseLocalCaches() ? caches.cachedMessages : null;
+        if (messages != null && getCachedMessage(messages, code, canonicalLocale) == MISSING_MESSAGE) {
+            touchMissingMessage(caches, messages, code, canonicalLocale);
+            this.metrics.missingMessageCacheHits.increment();
+            this.metrics.missingCodes.increment();
+            return null;
+        }
+        int index = 0;
+        for (String basename : getBasenameSet()) {
+            ResourceBundle bundle = bundles != null ? bundles[index++] : getResourceBundle(caches, basename, locale);
+            if (bundle != null) {
+                MessageTemplate template = getMessageTemplate(bundle, code, locale, null);
+                if (template != null) {
+                    return template;
+                }
+            }
+        }
+        this.metrics.missingCodes.increment();
+        if (messages != null) {
+            cacheMissingMessage(caches, messages, code, canonicalLocale);
+        }
+        return null;
+    }
+
+    /**
+     * Return the Locale whose cache entries to use for the given Locale: the first
+     * Locale requested that resolves to the same bundle Locale for every basename,
+     * e.g. {@code en} for {@code en_US} when only {@code messages_en.properties} exists.
+     * Returns the given Locale as-is unless using the local caches.
+     */
+    private Locale getCanonicalLocale(BundleCaches caches, Locale locale) {
+        if (!isUseLocalCaches()) {
+            return locale;
+        }
+        return getBundleChainLocale(caches, locale);
+    }
+
+    /**
+     * Return the first Locale requested that resolves to the same bundle Locale for
+     * every basename as the given Locale.
+     *
+     * @see #setLocaleCacheLimit
+     */
+    private Locale getBundleChainLocale(BundleCaches caches, Locale locale) {
+        Locale canonicalLocale = caches.canonicalLocales.get(locale);
+        if (canonicalLocale != null) {
+            return canonicalLocale;
+        }
+        // Concurrent first requests for a Locale share the loads, which run in parallel if enabled.
+        // The bundles are only cached under the canonical Locale, which they are the bundles of,
+        // so that all Locales resolving to them share a single entry per basename.
+        List<String> basenames = new ArrayList<>(getBasenameSet());
+        ResourceBundle[] bundles = new ResourceBundle[basenames.size()];
+        if (this.bundleLoadExecutor != null && bundles.length > 1) {
+            List<CompletableFuture<ResourceBundle>> loads = new ArrayList<>(bundles.length);
+            for (String basename : basenames) {
+                loads.add(CompletableFuture.supplyAsync(() -> loadResourceBundle(caches, basename, locale, null, false),
+                                                        this.bundleLoadExecutor));
+            }
+            for (int i = 0; i < bundles.length; i++) {
+                bundles[i] = joinLoad(loads.get(i));
+            }
+        } else {
+            for (int i = 0; i < bundles.length; i++) {
+                bundles[i] = loadResourceBundle(caches, basenames.get(i), locale, null, false);
+            }
+        }
+        List<Locale> bundleLocales = new ArrayList<>(bundles.length);
+        for (ResourceBundle bundle : bundles) {
+            bundleLocales.add(bundle != null ? bundle.getLocale() : null);
+        }
+        canonicalLocale = caches.localesByBundleLocales.computeIfAbsent(bundleLocales, key -> locale);
+        for (int i = 0; i < bundles.length; i++) {
+            if (bundles[i] != null) {
+                cacheResourceBundle(caches, basenames.get(i), canonicalLocale, bundles[i],
+                                    caches.cachedResourceBundles.get(basenames.get(i)));
+            }
+        }
+        Locale mappedLocale = canonicalLocale;
+        return caches.canonicalLocales.computeIfAbsent(locale, key -> mappedLocale);
+    }
+
+    /**
+     * Return the cached message for the given code and Locale,
+     * {@link #MISSING_MESSAGE} if it is known to be missing,
+     * or {@code null} if nothing is cached yet.
+     */
+    private static String getCachedMessage(Map<String, LocalizedMessages> messages, String code, Locale locale) {
+        LocalizedMessages localizedMessages = messages.get(code);
+        return localizedMessages != null ? localizedMessages.get(locale) : null;
+    }
+
+    private static void cacheMessage(Map<String, LocalizedMessages> messages, String code, Locale locale,
+                                     String message) {
+        messages.merge(code, new LocalizedMessages(locale, message), LocalizedMessages::merge);
+    }
+
+    /**
+     * Remember that no bundle defines the given code for the given Locale, evicting
+     * other missing entries if the configured limit is exceeded.
+     */
+    private void cacheMissingMessage(BundleCaches caches, Map<String, LocalizedMessages> messages, String code,
+                                     Locale locale) {
+        if (this.missingMessageCacheLimit != 0) {
+            caches.cachedMissingMessages.computeIfAbsent(new MissingMessageKey(messages, code, locale), key -> {
+                cacheMessage(messages, code, locale, MISSING_MESSAGE);
+                return Boolean.TRUE;
+            });
+        }
+    }
+
+    /**
+     * Mark the missing entry of the given code and Locale as recently used, so that it is not evicted next.
+     */
+    private static void touchMissingMessage(BundleCaches caches, Map<String, LocalizedMessages> messages,
+                                            String code, Locale locale) {
+        caches.cachedMissingMessages.get(new MissingMessageKey(messages, code, locale));
+    }
+
+    private ClockCache<Locale, Locale> newCanonicalLocaleCache() {
+        ClockCache<Locale, Locale> cache = new ClockCache<>(this.metrics.localeEvictions, locale -> {});
+        cache.setMaximumSize(this.localeCacheLimit);
+        return cache;
+    }
+
+    private ClockCache<MissingMessageKey, Boolean> newMissingMessageCache() {
+        ClockCache<MissingMessageKey, Boolean> cache =
+                new ClockCache<>(this.metrics.missingMessageEvictions, MissingMessageKey::uncache);
+        cache.setMaximumSize(this.missingMessageCacheLimit);
+        return cache;
+    }
+
+    /**
+     * Clear the resolved and missing messages, which are derived from
+     * the currently loaded bundles and have to go whenever one is reloaded.
+     */
+    private void clearCachedMessages(BundleCaches caches) {
+        caches.cachedMessages = new ConcurrentHashMap<>();
+        caches.cachedKeyedMessages = new ConcurrentHashMap<>();
+        caches.cachedMessageBytes = new ConcurrentHashMap<>();
+        caches.cachedMissingMessages = newMissingMessageCache();
+    }
+
+    private boolean isUseMessageSnapshot() {
+        return this.useMessageSnapshot && isUseLocalCaches();
+    }
+
+    /**
+     * Return the messages of the given bundle chain Locale from the current snapshot,
+     * adding the Locale to the snapshot first if necessary.
+     *
+     * @return the messages, or {@code null} if the snapshot already holds the
+     *         {@link #setMessageSnapshotLimit maximum number} of Locales
+     *
+     * @see #getBundleChainLocale
+     */
+    private Map<String, MessageSnapshot.Entry> getSnapshotMessages(BundleCaches caches, Locale locale) {
+        MessageSnapshot snapshot = caches.messageSnapshot;
+        Map<String, MessageSnapshot.Entry> messages = snapshot.getMessages(locale);
+        while (messages == null) {
+            if (isMessageSnapshotFull(snapshot)) {
+                return null;
+            }
+            // Built outside of the monitor, so that adding a Locale does not hold up the others.
+            Map<String, MessageSnapshot.Entry> newMessages = buildSnapshotMessages(caches, locale);
+            synchronized (caches.messageSnapshotMonitor) {
+                MessageSnapshot current = caches.messageSnapshot;
+                messages = current.getMessages(locale);
+                if (messages == null && current.getGeneration() == snapshot.getGeneration()) {
+                    if (isMessageSnapshotFull(current)) {
+                        return null;
+                    }
+                    caches.messageSnapshot = current.withLocale(locale, newMessages);
+                    messages = newMessages;
+                }
+                // Otherwise the bundles were reloaded meanwhile, so build again from the new ones.
+                snapshot = current;
+            }
+        }
+        return messages;
+    }
+
+    private boolean isMessageSnapshotFull(MessageSnapshot snapshot) {
+        return this.messageSnapshotLimit >= 0 && snapshot.getLocales().size() >= this.messageSnapshotLimit;
+    }
+
+    /**
+     * Build a new snapshot of the Locales of the current one from the currently
+     * cached bundles, and swap it in.
+     */
+    private void rebuildMessageSnapshot(BundleCaches caches) {
+        synchronized (caches.messageSnapshotMonitor) {
+            MessageSnapshot snapshot = caches.messageSnapshot;
+            Map<Locale, Map<String, MessageSnapshot.Entry>> messages = new HashMap<>();
+            for (Locale locale : snapshot.getLocales()) {
+                messages.put(locale, buildSnapshotMessages(caches, locale));
+            }
+            caches.messageSnapshot = new MessageSnapshot(messages, snapshot.getGeneration() + 1);
+        }
+    }
+
+    /**
+     * Swap in an empty snapshot, for when the bundle chain Locales its Locales stand for may have changed.
+     */
+    private static void clearMessageSnapshot(BundleCaches caches) {
+        synchronized (caches.messageSnapshotMonitor) {
+            caches.messageSnapshot = new MessageSnapshot(Collections.emptyMap(),
+                                                         caches.messageSnapshot.getGeneration() + 1);
+        }
+    }
+
+    /**
+     * Resolve every message of every basename for the given Locale, in basename order.
+     */
+    private Map<String, MessageSnapshot.Entry> buildSnapshotMessages(BundleCaches caches, Locale locale) {
+        Map<String, MessageSnapshot.Entry> messages = new HashMap<>();
+        for (ResourceBundle bundle : getResourceBundles(caches, locale)) {
+            if (bundle == null) {
+                continue;
+            }
+            for (String code : bundle.keySet()) {
+                if (messages.containsKey(code)) {
+                    continue;
+                }
+                Object value = bundle.getObject(code);
+                if (value instanceof String) {
+                    String message = (String) value;
+                    MessageTemplate template;
+                    try {
+                        template = MessageTemplate.compile(message, locale);
+                        this.metrics.templateCreations.increment();
+                    } catch (IllegalArgumentException ex) {
+                        // Not a valid MessageFormat pattern, but may still be used without arguments.
+                        template = null;
+                    }
+                    messages.put(code, new MessageSnapshot.Entry(message, template));
+                }
+            }
+        }
+        return messages;
+    }
+
+    /**
+     * Return the caches of the ClassLoader to load bundles with on the calling thread.
+     * @see #setCachePerContextClassLoader
+     */
+    private BundleCaches getBundleCaches() {
+        if (!this.cachePerContextClassLoader) {
+            return this.bundleCaches;
+        }
+        purgeBundleCaches();
+        ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+        if (classLoader == null || classLoader == getBundleClassLoader()) {
+            return this.bundleCaches;
+        }
+        BundleCaches caches = this.bundleCachesByClassLoader.get(new LookupKey(classLoader));
+        if (caches == null) {
+            WeakKey<ClassLoader> classLoaderKey = new WeakKey<>(classLoader, this.collectedClassLoaders);
+            caches = this.bundleCachesByClassLoader.computeIfAbsent(classLoaderKey,
+                                                                    key -> new BundleCaches(classLoaderKey));
+        }
+        return caches;
+    }
+
+    /**
+     * Return the caches of all ClassLoaders that have not been garbage collected.
+     */
+    private List<BundleCaches> getAllBundleCaches() {
+        purgeBundleCaches();
+        List<BundleCaches> allCaches = new ArrayList<>();
+        allCaches.add(this.bundleCaches);
+        for (BundleCaches caches : this.bundleCachesByClassLoader.values()) {
+            if (caches.getClassLoader() != null) {
+                allCaches.add(caches);
+            }
+        }
+        return allCaches;
+    }
+
+    /**
+     * Drop the caches of garbage collected ClassLoaders, if any. Their templates
+     * follow once their bundles are collected.
+     */
+    private void purgeBundleCaches() {
+        Reference<? extends ClassLoader> reference;
+        while ((reference = this.collectedClassLoaders.poll()) != null) {
+            this.bundleCachesByClassLoader.remove(reference);
+        }
+    }
+
+    /**
+     * Return whether lookups go through the caches of this MessageSource, which is
+     * the case when caching forever, reloading in the background or watching bundle
+     * files. Otherwise, every lookup goes through {@link ResourceBundle#getBundle}.
+     */
+    private boolean isUseLocalCaches() {
+        return getCacheMillis() < 0 || this.reloadInBackground || this.watchBundleFiles;
+    }
+
+    /**
+     * Return a ResourceBundle for the given basename and code,
+     * fetching already generated MessageFormats from the cache.
+     *
+     * @param caches the caches of the ClassLoader to look up the ResourceBundle with
+     * @param basename the basename of the ResourceBundle
+     * @param locale the Locale to find the ResourceBundle for
+     *
+     * @return the resulting ResourceBundle, or {@code null} if none
+     *         found for the given basename and Locale
+     */
+    private ResourceBundle getResourceBundle(BundleCaches caches, String basename, Locale locale) {
+        if (!isUseLocalCaches()) {
+            // Fresh ResourceBundle.getBundle call in order to let ResourceBundle
+            // do its native caching, at the expense of more extensive lookup steps.
+            return doGetBundle(caches, basename, locale);
+        } else {
+            // Cache forever or reload in the background: prefer locale cache over repeated getBundle calls.
+            return getCachedResourceBundle(caches, basename, getCanonicalLocale(caches, locale));
+        }
+    }
+
+    /**
+     * Return the ResourceBundle cached for exactly the given basename and Locale,
+     * loading and caching it first if necessary.
+     *
+     * @return the cached ResourceBundle, or {@code null} if none found
+     */
+    private ResourceBundle getCachedResourceBundle(BundleCaches caches, String basename, Locale locale) {
+        Map<Locale, ResourceBundle> localeMap = caches.cachedResourceBundles.get(basename);
+        if (localeMap != null) {
+            ResourceBundle bundle = localeMap.get(locale);
+            if (bundle != null) {
+                this.metrics.bundleCacheHits.increment();
+                return bundle;
+            }
+        }
+        this.metrics.bundleCacheMisses.increment();
+        if (this.bundleLoadExecutor != null && caches.parallelLoadedLocales.add(locale)) {
+            loadResourceBundles(caches, locale);
+            localeMap = caches.cachedResourceBundles.get(basename);
+            if (localeMap != null) {
+                ResourceBundle bundle = localeMap.get(locale);
+                if (bundle != null) {
+                    return bundle;
+                }
+            }
+        }
+        return loadResourceBundle(caches, basename, locale, localeMap, true);
+    }
+
+    /**
+     * Load the bundles of all basenames that are not cached yet for the given Locale
+     * on the {@link #setBundleLoadExecutor bundle load Executor}, and wait for them.
+     * Failed loads are left to the lookups of their basenames to report.
+     */
+    private void loadResourceBundles(BundleCaches caches, Locale locale) {
+        List<CompletableFuture<ResourceBundle>> loads = new ArrayList<>();
+        for (String basename : getBasenameSet()) {
+            Map<Locale, ResourceBundle> localeMap = caches.cachedResourceBundles.get(basename);
+            if (localeMap == null || !localeMap.containsKey(locale)) {
+                loads.add(CompletableFuture.supplyAsync(
+                        () -> loadResourceBundle(caches, basename, locale, localeMap, true), this.bundleLoadExecutor));
+            }
+        }
+        CompletableFuture.allOf(loads.toArray(new CompletableFuture<?>[0])).handle((result, ex) -> null).join();
+    }
+
+    /**
+     * Load the bundle of the given basename and Locale, and cache it if requested. Only one
+     * thread loads a given bundle at a time; concurrent callers wait for its result.
+     *
+     * @param localeMap the cached bundles of the basename, or {@code null} if none yet
+     * @param cache whether to cache the bundle under the given Locale, or only to load it
+     *              quietly, returning {@code null} without a warning if it does not exist
+     *
+     * @return the bundle, or {@code null} if none found
+     */
+    private ResourceBundle loadResourceBundle(BundleCaches caches, String basename, Locale locale,
+                                              Map<Locale, ResourceBundle> localeMap, boolean cache) {
+        Map<Locale, CompletableFuture<ResourceBundle>> loads = caches.loadingResourceBundles.get(basename);
+        if (loads == null) {
+            loads = caches.loadingResourceBundles.computeIfAbsent(basename, key -> new ConcurrentHashMap<>());
+        }
+        CompletableFuture<ResourceBundle> load = new CompletableFuture<>();
+        CompletableFuture<ResourceBundle> existingLoad = loads.putIfAbsent(locale, load);
+        if (existingLoad != null) {
+            this.metrics.bundleLoadsAvoided.increment();
+            return joinLoad(existingLoad);
+        }
+        try {
+            // A load that completed between our cache miss and registering this one has cached its bundle.
+            Map<Locale, ResourceBundle> currentLocaleMap = caches.cachedResourceBundles.get(basename);
+            ResourceBundle bundle = currentLocaleMap != null ? currentLocaleMap.get(locale) : null;
+            if (bundle == null) {
+                if (cache) {
+                    bundle = doLoadResourceBundle(caches, basename, locale,
+                                                  currentLocaleMap != null ? currentLocaleMap : localeMap);
+                } else {
+                    try {
+                        bundle = doGetBundle(caches, basename, locale);
+                    } catch (MissingResourceException ex) {
+                        bundle = null;
+                    }
+                }
+            }
+            load.complete(bundle);
+            return bundle;
+        } catch (RuntimeException | Error ex) {
+            load.completeExceptionally(ex);
+            throw ex;
+        } finally {
+            loads.remove(locale, load);
+        }
+    }
+
+    /**
+     * Return the result of the given bundle load, rethrowing what the loading thread got.
+     */
+    private static ResourceBundle joinLoad(CompletableFuture<ResourceBundle> load) {
+        try {
+            return load.join();
+        } catch (CompletionException ex) {
+            if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            }
+            if (ex.getCause() instanceof Error) {
+                throw (Error) ex.getCause();
+            }
+            throw ex;
+        }
+    }
+
+    private ResourceBundle doLoadResourceBundle(BundleCaches caches, String basename, Locale locale,
+                                                Map<Locale, ResourceBundle> localeMap) {
+        try {
+            return cacheResourceBundle(caches, basename, locale, doGetBundle(caches, basename, locale), localeMap);
+        } catch (MissingResourceException ex) {
+            if (logger.isWarnEnabled()) {
+                logger.warn("ResourceBundle [" + basename + "] not found for MessageSource: " + ex
+                        .getMessage());
+            }
+            // Assume bundle not found
+            // -> do NOT throw the exception to allow for checking parent message source.
+            return null;
+        }
+    }
+
+    /**
+     * Cache the given bundle of the given basename under the given Locale, unless one is already.
+     *
+     * @param localeMap the cached bundles of the basename, or {@code null} if none yet
+     *
+     * @return the cached bundle
+     */
+    private ResourceBundle cacheResourceBundle(BundleCaches caches, String basename, Locale locale,
+                                               ResourceBundle bundle, Map<Locale, ResourceBundle> localeMap) {
+        if (localeMap == null) {
+            localeMap = new ConcurrentHashMap<>();
+            Map<Locale, ResourceBundle> existing = caches.cachedResourceBundles.putIfAbsent(
+                    basename, localeMap);
+            if (existing != null) {
+                localeMap = existing;
+            }
+        }
+        ResourceBundle existing = localeMap.putIfAbsent(locale, bundle);
+        if (existing != null) {
+            // Possibly already replaced by a background reload
+            return existing;
+        }
+        if (this.reloadInBackground) {
+            scheduleReload();
+        }
+        return bundle;
+    }
+
+    /**
+     * Start checking the cached bundles for changes in the background,
+     * unless already started.
+     */
+    private void scheduleReload() {
+        if (this.reloadExecutor == null && getCacheMillis() >= 0) {
+            synchronized (this) {
+                if (this.reloadExecutor == null) {
+                    ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                        Thread thread = new Thread(runnable, "message-source-reloader");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                    long period = Math.max(getCacheMillis(), MIN_RELOAD_PERIOD_MILLIS);
+                    executor.scheduleWithFixedDelay(this::reloadBundles, period, period, TimeUnit.MILLISECONDS);
+                    this.reloadExecutor = executor;
+                }
+            }
+        }
+    }
+
+    /**
+     * Check every cached bundle for changes and swap in the reloaded ones.
+     *
+     * <p>{@link ResourceBundle#getBundle} performs the actual freshness check
+     * through {@link MessageSourceControl}, on this background thread.
+     */
+    private void reloadBundles() {
+        try {
+            for (BundleCaches caches : getAllBundleCaches()) {
+                reloadBundles(caches);
+            }
+        } catch (RuntimeException ex) {
+            // Keep the schedule alive.
+            logger.warn("Failed to reload ResourceBundles for " + this, ex);
+        }
+    }
+
+    private void reloadBundles(BundleCaches caches) {
+        boolean reloaded = false;
+        for (Map.Entry<String, Map<Locale, ResourceBundle>> entry : caches.cachedResourceBundles.entrySet()) {
+            String basename = entry.getKey();
+            Map<Locale, ResourceBundle> localeMap = entry.getValue();
+            for (Map.Entry<Locale, ResourceBundle> localeEntry : localeMap.entrySet()) {
+                ResourceBundle staleBundle = localeEntry.getValue();
+                ResourceBundle bundle;
+                try {
+                    bundle = doGetBundle(caches, basename, localeEntry.getKey());
+                } catch (MissingResourceException ex) {
+                    // Keep serving the bundle we have.
+                    continue;
+                }
+                if (bundle != staleBundle && localeMap.replace(localeEntry.getKey(), staleBundle, bundle)) {
+                    // Also covers bundles replaced because one of their parents changed.
+                    evictMessageTemplates(staleBundle);
+                    clearCachedMessages(caches);
+                    reloaded = true;
+                }
+            }
+        }
+        if (reloaded && isUseMessageSnapshot()) {
+            rebuildMessageSnapshot(caches);
+        }
+    }
+
+    /**
+     * Drop the cached templates of the given bundle, looking them up through its interned keys.
+     */
+    private void evictMessageTemplates(ResourceBundle bundle) {
+        BundleTemplates templates = this.templatesByBundle.get(new LookupKey(bundle));
+        if (templates != null) {
+            for (MessageFormatKey key : templates.keys.keySet()) {
+                this.cachedBundleMessageFormats.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Drop the cached templates of garbage collected ResourceBundles, if any,
+     * one key at a time.
+     */
+    private void purgeMessageTemplates() {
+        Reference<? extends ResourceBundle> reference;
+        while ((reference = this.collectedBundles.poll()) != null) {
+            BundleTemplates templates = (BundleTemplates) reference;
+            this.templatesByBundle.remove(templates);
+            for (MessageFormatKey key : templates.keys.keySet()) {
+                this.cachedBundleMessageFormats.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Return the keys of the cached templates of the given bundle, registering
+     * the bundle to be purged once it is garbage collected if necessary.
+     */
+    private BundleTemplates getBundleTemplates(ResourceBundle bundle) {
+        BundleTemplates templates = this.templatesByBundle.get(new LookupKey(bundle));
+        if (templates == null) {
+            BundleTemplates newTemplates = new BundleTemplates(bundle, this.collectedBundles);
+            templates = this.templatesByBundle.putIfAbsent(newTemplates, newTemplates);
+            if (templates == null) {
+                templates = newTemplates;
+            }
+        }
+        return templates;
+    }
+
+    /**
+     * Watch the directory of the given bundle file for changes, starting
+     * the watching thread first if necessary. Failures are only logged,
+     * leaving the bundle cached until the next change that is noticed.
+     */
+    private void watchBundleFile(String basename, Path file) {
+        Path directory = file.toAbsolutePath().getParent();
+        Set<String> basenames = this.watchedBasenames.get(directory);
+        if (basenames != null && basenames.contains(basename)) {
+            return;
+        }
+        try {
+            WatchService watchService = this.watchService;
+            if (watchService == null) {
+                synchronized (this) {
+                    watchService = this.watchService;
+                    if (watchService == null) {
+                        WatchService newWatchService = FileSystems.getDefault().newWatchService();
+                        Thread thread = new Thread(() -> watchBundleFiles(newWatchService),
+                                                   "message-source-watcher");
+                        thread.setDaemon(true);
+                        thread.start();
+                        this.watchService = watchService = newWatchService;
+                    }
+                }
+            }
+            if (basenames == null) {
+                basenames = this.watchedBasenames.computeIfAbsent(directory, key -> ConcurrentHashMap.newKeySet());
+            }
+            if (basenames.add(basename)) {
+                directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                                   StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+            }
+        } catch (IOException | ClosedWatchServiceException ex) {
+            if (logger.isWarnEnabled()) {
+                logger.warn("Failed to watch [" + directory + "] for changes: " + ex);
+            }
+        }
+    }
+
+    /**
+     * Reload the bundles affected by the changes of the watched directories
+     * until the given WatchService is closed.
+     */
+    private void watchBundleFiles(WatchService watchService) {
+        while (true) {
+            WatchKey key;
+            try {
+                key = watchService.take();
+            } catch (ClosedWatchServiceException | InterruptedException ex) {
+                return;
+            }
+            Set<String> fileNames = new HashSet<>();
+            boolean overflow = false;
+            boolean filesAddedOrRemoved = false;
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                    overflow = true;
+                } else {
+                    fileNames.add(event.context().toString());
+                    filesAddedOrRemoved |= event.kind() != StandardWatchEventKinds.ENTRY_MODIFY;
+                }
+            }
+            key.reset();
+            try {
+                reloadChangedBundles((Path) key.watchable(), overflow ? null : fileNames,
+                                     overflow || filesAddedOrRemoved);
+            } catch (RuntimeException ex) {
+                // Keep watching.
+                logger.warn("Failed to reload ResourceBundles for " + this, ex);
+            }
+        }
+    }
+
+    /**
+     * Reload the cached bundles of the given directory that resolve through one
+     * of the given files, and swap them in.
+     *
+     * @param fileNames the names of the changed files, or {@code null} if unknown
+     * @param filesAddedOrRemoved whether files may have been added or removed,
+     *        which may change how Locales resolve
+     */
+    private void reloadChangedBundles(Path directory, Set<String> fileNames, boolean filesAddedOrRemoved) {
+        Set<String> basenames = this.watchedBasenames.get(directory);
+        if (basenames == null) {
+            return;
+        }
+        for (BundleCaches caches : getAllBundleCaches()) {
+            reloadChangedBundles(caches, basenames, fileNames, filesAddedOrRemoved);
+        }
+    }
+
+    private void reloadChangedBundles(BundleCaches caches, Set<String> basenames, Set<String> fileNames,
+                                      boolean filesAddedOrRemoved) {
+        // ResourceBundle caches none of the bundles of watched basenames, not even missing ones,
+        // so they are loaded from the current files here.
+        boolean reloaded = false;
+        for (String basename : basenames) {
+            if (filesAddedOrRemoved) {
+                caches.availableBundles.remove(basename);
+            }
+            Map<Locale, ResourceBundle> localeMap = caches.cachedResourceBundles.get(basename);
+            if (localeMap == null) {
+                continue;
+            }
+            for (Map.Entry<Locale, ResourceBundle> localeEntry : localeMap.entrySet()) {
+                Locale locale = localeEntry.getKey();
+                if (fileNames != null && !caches.control.isResolvedThrough(basename, locale, fileNames)) {
+                    continue;
+                }
+                ResourceBundle staleBundle = localeEntry.getValue();
+                boolean replaced;
+                try {
+                    replaced = localeMap.replace(locale, staleBundle, doGetBundle(caches, basename, locale));
+                } catch (MissingResourceException ex) {
+                    // All files of the bundle are gone.
+                    replaced = localeMap.remove(locale, staleBundle);
+                }
+                if (replaced) {
+                    evictMessageTemplates(staleBundle);
+                    reloaded = true;
+                }
+            }
+        }
+        if (filesAddedOrRemoved) {
+            caches.canonicalLocales = newCanonicalLocaleCache();
+            caches.localesByBundleLocales.clear();
+        }
+        if (reloaded) {
+            clearCachedMessages(caches);
+        }
+        if (isUseMessageSnapshot()) {
+            if (filesAddedOrRemoved) {
+                clearMessageSnapshot(caches);
+            } else if (reloaded) {
+                rebuildMessageSnapshot(caches);
+            }
+        }
+    }
+
+    /**
+     * Return the ResourceBundles of all basenames for the given Locale,
+     * in basename order, with {@code null} for basenames without a bundle.
+     */
+    private ResourceBundle[] getResourceBundles(BundleCaches caches, Locale locale) {
+        Set<String> basenames = getBasenameSet();
+        ResourceBundle[] bundles = new ResourceBundle[basenames.size()];
+        int index = 0;
+        for (String basename : basenames) {
+            bundles[index++] = getResourceBundle(caches, basename, locale);
+        }
+        return bundles;
+    }
+
+    /**
+     * Obtain the resource bundle for the given basename and Locale.
+     *
+     * @param caches the caches of the ClassLoader to load the bundle with
+     * @param basename the basename to look for
+     * @param locale the Locale to look for
+     *
+     * @return the corresponding ResourceBundle
+     *
+     * @throws MissingResourceException if no matching bundle could be found
+     * @see ResourceBundle#getBundle(String, Locale, ClassLoader)
+     * @see #getBundleClassLoader()
+     */
+    private ResourceBundle doGetBundle(BundleCaches caches, String basename, Locale locale)
+            throws MissingResourceException {
+        ClassLoader classLoader = caches.getClassLoader();
+        if (classLoader == null) {
+            throw new MissingResourceException("ClassLoader has been garbage collected", basename, "");
+        }
+        long startTime = System.nanoTime();
+        try {
+            return ResourceBundle.getBundle(basename, locale, classLoader, caches.control);
+        } finally {
+            this.metrics.bundleLoads.increment();
+            this.metrics.bundleLoadNanos.add(System.nanoTime() - startTime);
+        }
+    }
+
+    private AvailableBundles getAvailableBundles(BundleCaches caches, String basename) {
+        AvailableBundles bundles = caches.availableBundles.get(basename);
+        if (bundles == null) {
+            bundles = caches.availableBundles.computeIfAbsent(basename, key -> scanAvailableBundles(caches, key));
+        }
+        return bundles;
+    }
+
+    /**
+     * List the bundle files of the given basename on the classpath.
+     *
+     * @return the names of the bundles found, in {@link ResourceBundle.Control#toBundleName}
+     *         form, or {@link #NO_AVAILABLE_BUNDLES} if they cannot be listed
+     */
+    private AvailableBundles scanAvailableBundles(BundleCaches caches, String basename) {
+        String resourceName = basename.replace('.', '/');
+        int separator = resourceName.lastIndexOf('/');
+        if (separator < 0) {
+            return NO_AVAILABLE_BUNDLES;
+        }
+        String simpleName = resourceName.substring(separator + 1);
+        ResourcePatternResolver resolver = new PathMatchingResourcePatternResolver(caches.getClassLoader());
+        Set<String> bundleNames = new HashSet<>();
+        try {
+            for (String extension : new String[] { "properties", MessageCatalog.FILE_EXTENSION, "class" }) {
+                String pattern = ResourcePatternResolver.CLASSPATH_ALL_URL_PREFIX + resourceName + "*." + extension;
+                for (Resource resource : resolver.getResources(pattern)) {
+                    String filename = resource.getFilename();
+                    if (filename != null && filename.startsWith(simpleName)) {
+                        bundleNames.add(basename + filename.substring(simpleName.length(),
+                                                                      filename.length() - extension.length() - 1));
+                    }
+                }
+            }
+        } catch (IOException ex) {
+            if (logger.isWarnEnabled()) {
+                logger.warn("Failed to list the bundles of [" + basename + "]: " + ex.getMessage());
+            }
+            return NO_AVAILABLE_BUNDLES;
+        }
+        if (logger.isDebugEnabled()) {
+            logger.debug("Found bundles " + bundleNames + " for basename [" + basename + "]");
         }
+        return bundleNames.isEmpty() ? NO_AVAILABLE_BUNDLES : new AvailableBundles(bundleNames);
     }
 
     /**
-     * Obtain the resource bundle for the given basename and Locale.
+     * Load a property-based resource bundle from the given stream.
      *
-     * @param basename the basename to look for
-     * @param locale the Locale to look for
+     * <p>The default implementation returns a {@link PropertiesBundle}, which parses
+     * the same syntax as {@link java.util.PropertyResourceBundle} considerably faster.
      *
-     * @return the corresponding ResourceBundle
+     * @param stream the stream of the target resource
+     * @param encoding the encoding of the target resource
      *
-     * @throws MissingResourceException if no matching bundle could be found
-     * @see ResourceBundle#getBundle(String, Locale, ClassLoader)
-     * @see #getBundleClassLoader()
+     * @return the fully loaded bundle
+     *
+     * @throws IOException in case of I/O failure or an unsupported encoding
+     * @see PropertiesBundle#read(InputStream, Charset)
      */
-    private ResourceBundle doGetBundle(String basename, Locale locale) throws MissingResourceException {
-        return ResourceBundle.getBundle(basename, locale, getBundleClassLoader(), new MessageSourceControl());
+    private ResourceBundle loadBundle(InputStream stream, String encoding) throws IOException {
+        return PropertiesBundle.read(stream, toCharset(encoding));
     }
 
     /**
-     * Load a property-based resource bundle from the given reader.
-     *
-     * <p>The default implementation returns a {@link PropertyResourceBundle}.
+     * Load a property-based resource bundle from the given file, reading it
+     * through a {@link java.nio.channels.FileChannel} instead of a stream.
      *
-     * @param reader the reader for the target resource
+     * @param file the target resource on the filesystem
+     * @param encoding the encoding of the target resource
      *
      * @return the fully loaded bundle
      *
-     * @throws IOException in case of I/O failure
-     * @see PropertyResourceBundle#PropertyResourceBundle(Reader)
-     * @since 4.2
+     * @throws IOException in case of I/O failure or an unsupported encoding
+     * @see PropertiesBundle#read(Path, Charset)
      */
-    private ResourceBundle loadBundle(Reader reader) throws IOException {
-        return new PropertyResourceBundle(reader);
+    private ResourceBundle loadBundle(Path file, String encoding) throws IOException {
+        return PropertiesBundle.read(file, toCharset(encoding));
+    }
+
+    private static Charset toCharset(String encoding) throws UnsupportedEncodingException {
+        try {
+            return Charset.forName(encoding);
+        } catch (IllegalArgumentException ex) {
+            throw new UnsupportedEncodingException(encoding);
+        }
     }
 
     /**
-     * Return a MessageFormat for the given bundle and code,
-     * fetching already generated MessageFormats from the cache.
+     * Return a MessageTemplate for the given bundle and code,
+     * fetching already compiled templates from the cache.
      *
      * @param bundle the ResourceBundle to work on
      * @param code the message code to retrieve
-     * @param locale the Locale to use to build the MessageFormat
+     * @param locale the Locale to use to build the MessageTemplate
+     * @param creations the counter to increment if this call compiles the template,
+     *                  or {@code null} if none
      *
-     * @return the resulting MessageFormat, or {@code null} if no message
+     * @return the resulting MessageTemplate, or {@code null} if no message
      *         defined for the given code
      *
      * @throws MissingResourceException if thrown by the ResourceBundle
      */
-    private MessageFormat getMessageFormat(ResourceBundle bundle, String code, Locale locale)
-            throws MissingResourceException {
-        Map<String, Map<Locale, MessageFormat>> codeMap = this.cachedBundleMessageFormats.get(bundle);
-        Map<Locale, MessageFormat> localeMap = null;
-        if (codeMap != null) {
-            localeMap = codeMap.get(code);
-            if (localeMap != null) {
-                MessageFormat result = localeMap.get(locale);
-                if (result != null) {
-                    return result;
-                }
-            }
+    private MessageTemplate getMessageTemplate(ResourceBundle bundle, String code, Locale locale,
+                                               LongAdder creations) throws MissingResourceException {
+        MessageTemplate result = this.cachedBundleMessageFormats.get(new MessageFormatKey(bundle, code, locale));
+        if (result != null) {
+            this.metrics.templateCacheHits.increment();
+            return result;
         }
+        this.metrics.templateCacheMisses.increment();
+        purgeMessageTemplates();
 
         String msg = getStringOrNull(bundle, code);
         if (msg != null) {
-            if (codeMap == null) {
-                codeMap = new ConcurrentHashMap<>();
-                Map<String, Map<Locale, MessageFormat>> existing =
-                        this.cachedBundleMessageFormats.putIfAbsent(bundle, codeMap);
-                if (existing != null) {
-                    codeMap = existing;
-                }
-            }
-            if (localeMap == null) {
-                localeMap = new ConcurrentHashMap<>();
-                Map<Locale, MessageFormat> existing = codeMap.putIfAbsent(code, localeMap);
-                if (existing != null) {
-                    localeMap = existing;
+            // Compile once per key; concurrent misses wait for the winner's template.
+            // Only the cached key references the bundle weakly, to be purged with it.
+            BundleTemplates templates = getBundleTemplates(bundle);
+            MessageTemplate[] created = new MessageTemplate[1];
+            result = this.cachedBundleMessageFormats.computeIfAbsent(
+                    templates.intern(code, locale), k -> {
+                        created[0] = MessageTemplate.compile(msg, locale);
+                        // Interned again in case it was evicted since.
+                        templates.keys.putIfAbsent(k, k);
+                        return created[0];
+                    });
+            if (created[0] != null) {
+                this.metrics.templateCreations.increment();
+                if (creations != null) {
+                    creations.increment();
                 }
+            } else {
+                this.metrics.templateCreationsAvoided.increment();
             }
-            MessageFormat result = createMessageFormat(msg, locale);
-            localeMap.put(locale, result);
             return result;
         }
 
@@ -332,13 +1953,542 @@ public class ConcurrentResourceBundleMessageSource extends AbstractResourceBased
         return getClass().getName() + ": basenames=" + getBasenameSet();
     }
 
+    /**
+     * Outcome of a {@link #warmUp cache warm-up}.
+     */
+    public static final class WarmUpResult {
+
+        private final int bundleCount;
+
+        private final int templateCount;
+
+        private final int messageCount;
+
+        private final long elapsedNanos;
+
+        WarmUpResult(int bundleCount, int templateCount, int messageCount, long elapsedNanos) {
+            this.bundleCount = bundleCount;
+            this.templateCount = templateCount;
+            this.messageCount = messageCount;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        /**
+         * Return the number of ResourceBundles found for the warmed up Locales,
+         * whether loaded by the warm-up or already cached.
+         */
+        public int getBundleCount() {
+            return bundleCount;
+        }
+
+        /**
+         * Return the number of message templates compiled by the warm-up,
+         * not counting the templates that were already cached.
+         */
+        public int getTemplateCount() {
+            return templateCount;
+        }
+
+        /**
+         * Return the number of no-arg messages resolved for the warmed up Locales,
+         * whether resolved by the warm-up or already cached.
+         */
+        public int getMessageCount() {
+            return messageCount;
+        }
+
+        /**
+         * Return how long the warm-up took, in the given unit.
+         */
+        public long getElapsedTime(TimeUnit unit) {
+            return unit.convert(elapsedNanos, TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public String toString() {
+            return bundleCount + " bundle(s), " + templateCount + " template(s) and " + messageCount +
+                   " message(s) in " + getElapsedTime(TimeUnit.MILLISECONDS) + " ms";
+        }
+    }
+
+    /**
+     * Composite cache key of a ResourceBundle, a message code and a Locale. ResourceBundles
+     * are compared by identity, as {@link ResourceBundle} does not override {@code equals}.
+     * Cached keys only reference their bundle weakly, through its {@link BundleTemplates},
+     * while keys only used for lookups reference it directly, so that a lookup does not
+     * allocate a reference object. The hash code is computed once, when the key is created.
+     */
+    private static final class MessageFormatKey {
+
+        /**
+         * The bundle of a lookup key, or {@code null} for a cached key.
+         */
+        private final ResourceBundle bundle;
+
+        /**
+         * The templates of the bundle of a cached key, or {@code null} for a lookup key.
+         */
+        private final BundleTemplates templates;
+
+        private final String code;
+
+        private final Locale locale;
+
+        private final int hashCode;
+
+        MessageFormatKey(ResourceBundle bundle, String code, Locale locale) {
+            this(bundle, null, code, locale, System.identityHashCode(bundle));
+        }
+
+        MessageFormatKey(BundleTemplates templates, String code, Locale locale) {
+            this(null, templates, code, locale, templates.hashCode());
+        }
+
+        private MessageFormatKey(ResourceBundle bundle, BundleTemplates templates, String code, Locale locale,
+                                 int bundleHashCode) {
+            this.bundle = bundle;
+            this.templates = templates;
+            this.code = code;
+            this.locale = locale;
+            this.hashCode = 31 * (31 * bundleHashCode + code.hashCode()) + locale.hashCode();
+        }
+
+        /**
+         * Return the bundle of this key, or {@code null} if it has been garbage collected.
+         */
+        private ResourceBundle getBundle() {
+            return templates != null ? templates.get() : bundle;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (this == other) {
+                return true;
+            }
+            if (!(other instanceof MessageFormatKey)) {
+                return false;
+            }
+            MessageFormatKey otherKey = (MessageFormatKey) other;
+            // Cached keys of the same bundle still equal each other once it has been collected.
+            if (templates == null || templates != otherKey.templates) {
+                ResourceBundle bundle = getBundle();
+                if (bundle == null || bundle != otherKey.getBundle()) {
+                    return false;
+                }
+            }
+            return code.equals(otherKey.code) && locale.equals(otherKey.locale);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+
+    /**
+     * Weak reference usable as a Map key that does not keep its referent reachable.
+     * Keys are compared by the identity of their referents, and a key whose referent
+     * has been collected only equals itself. Lookups go through a {@link LookupKey}
+     * instead, which does not allocate a reference object.
+     */
+    private static class WeakKey<T> extends WeakReference<T> {
+
+        private final int hashCode;
+
+        /**
+         * @param queue the queue to enqueue the key on once the referent is collected
+         */
+        WeakKey(T referent, ReferenceQueue<? super T> queue) {
+            super(referent, queue);
+            this.hashCode = System.identityHashCode(referent);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (this == other) {
+                return true;
+            }
+            Object referent = get();
+            return referent != null && referent == LookupKey.getReferent(other);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+
+    /**
+     * Short-lived key to look up a {@link WeakKey} of the given referent with.
+     */
+    private static final class LookupKey {
+
+        private final Object referent;
+
+        LookupKey(Object referent) {
+            this.referent = referent;
+        }
+
+        /**
+         * Return the referent of the given {@link WeakKey} or {@link LookupKey},
+         * or {@code null} if collected or not a key.
+         */
+        static Object getReferent(Object key) {
+            if (key instanceof WeakKey) {
+                return ((WeakKey<?>) key).get();
+            }
+            return key instanceof LookupKey ? ((LookupKey) key).referent : null;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return referent == getReferent(other);
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(referent);
+        }
+    }
+
+    /**
+     * The interned keys of the cached templates of one ResourceBundle, which is only weakly
+     * referenced. Enqueued once the bundle is garbage collected, to purge its templates.
+     */
+    private static final class BundleTemplates extends WeakKey<ResourceBundle> {
+
+        /**
+         * The key of every cached template of the bundle, mapped to itself. May hold
+         * keys whose template is no longer cached, until the bundle is purged.
+         */
+        final Map<MessageFormatKey, MessageFormatKey> keys = new ConcurrentHashMap<>();
+
+        BundleTemplates(ResourceBundle bundle, ReferenceQueue<? super ResourceBundle> queue) {
+            super(bundle, queue);
+        }
+
+        /**
+         * Return the single key instance of the given code and Locale for the bundle.
+         */
+        MessageFormatKey intern(String code, Locale locale) {
+            MessageFormatKey key = new MessageFormatKey(this, code, locale);
+            MessageFormatKey existing = keys.putIfAbsent(key, key);
+            return existing != null ? existing : key;
+        }
+    }
+
+    /**
+     * Resolved no-arg messages of one Locale, indexed by {@link MessageKey} ID.
+     * The array grows by copying when handles are created after it. A message
+     * stored concurrently with a copy may be lost, which only costs another lookup.
+     */
+    private static final class KeyedMessages {
+
+        private volatile AtomicReferenceArray<String> messages;
+
+        KeyedMessages(int capacity) {
+            this.messages = new AtomicReferenceArray<>(Math.max(capacity, 16));
+        }
+
+        String get(int id) {
+            AtomicReferenceArray<String> messages = this.messages;
+            return id < messages.length() ? messages.get(id) : null;
+        }
+
+        void put(int id, String message) {
+            AtomicReferenceArray<String> messages = this.messages;
+            if (id >= messages.length()) {
+                messages = grow(id);
+            }
+            messages.set(id, message);
+        }
+
+        private synchronized AtomicReferenceArray<String> grow(int id) {
+            AtomicReferenceArray<String> messages = this.messages;
+            if (id < messages.length()) {
+                return messages;
+            }
+            AtomicReferenceArray<String> newMessages =
+                    new AtomicReferenceArray<>(Math.max(id + 1, messages.length() * 2));
+            for (int i = 0; i < messages.length(); i++) {
+                newMessages.set(i, messages.get(i));
+            }
+            this.messages = newMessages;
+            return newMessages;
+        }
+    }
+
+    /**
+     * Immutable table of the resolved messages of one message code per canonical Locale.
+     * There is one canonical Locale per combination of bundle files, however many Locales
+     * are requested, so a linear scan over the table is cheaper than another hash lookup.
+     * New Locales are added by copying the table.
+     */
+    private static final class LocalizedMessages {
+
+        private final Locale[] locales;
+
+        private final String[] messages;
+
+        LocalizedMessages(Locale locale, String message) {
+            this(new Locale[] { locale }, new String[] { message });
+        }
+
+        private LocalizedMessages(Locale[] locales, String[] messages) {
+            this.locales = locales;
+            this.messages = messages;
+        }
+
+        String get(Locale locale) {
+            Locale[] locales = this.locales;
+            for (int i = 0; i < locales.length; i++) {
+                if (locales[i] == locale || locales[i].equals(locale)) {
+                    return messages[i];
+                }
+            }
+            return null;
+        }
+
+        LocalizedMessages merge(LocalizedMessages other) {
+            LocalizedMessages result = this;
+            for (int i = 0; i < other.locales.length; i++) {
+                if (result.get(other.locales[i]) == null) {
+                    result = result.with(other.locales[i], other.messages[i]);
+                }
+            }
+            return result;
+        }
+
+        /**
+         * Return a copy of this table without the given message of the given Locale,
+         * or {@code null} if it would be empty.
+         */
+        LocalizedMessages without(Locale locale, String message) {
+            for (int i = 0; i < locales.length; i++) {
+                if (locales[i].equals(locale) && messages[i] == message) {
+                    if (locales.length == 1) {
+                        return null;
+                    }
+                    Locale[] newLocales = new Locale[locales.length - 1];
+                    String[] newMessages = new String[messages.length - 1];
+                    System.arraycopy(locales, 0, newLocales, 0, i);
+                    System.arraycopy(messages, 0, newMessages, 0, i);
+                    System.arraycopy(locales, i + 1, newLocales, i, locales.length - i - 1);
+                    System.arraycopy(messages, i + 1, newMessages, i, messages.length - i - 1);
+                    return new LocalizedMessages(newLocales, newMessages);
+                }
+            }
+            return this;
+        }
+
+        private LocalizedMessages with(Locale locale, String message) {
+            int length = locales.length;
+            Locale[] newLocales = Arrays.copyOf(locales, length + 1);
+            String[] newMessages = Arrays.copyOf(messages, length + 1);
+            newLocales[length] = locale;
+            newMessages[length] = message;
+            return new LocalizedMessages(newLocales, newMessages);
+        }
+    }
+
+    /**
+     * Key of a code and Locale cached as {@link #MISSING_MESSAGE} in a Map of resolved
+     * messages, which uncaches it when evicted.
+     */
+    private static final class MissingMessageKey {
+
+        private final Map<String, LocalizedMessages> messages;
+
+        private final String code;
+
+        private final Locale locale;
+
+        MissingMessageKey(Map<String, LocalizedMessages> messages, String code, Locale locale) {
+            this.messages = messages;
+            this.code = code;
+            this.locale = locale;
+        }
+
+        void uncache() {
+            messages.computeIfPresent(code, (key, localizedMessages) -> localizedMessages.without(
+                    locale, MISSING_MESSAGE));
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (this == other) {
+                return true;
+            }
+            if (!(other instanceof MissingMessageKey)) {
+                return false;
+            }
+            MissingMessageKey otherKey = (MissingMessageKey) other;
+            return messages == otherKey.messages && code.equals(otherKey.code) && locale.equals(otherKey.locale);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * code.hashCode() + locale.hashCode();
+        }
+    }
+
+    /**
+     * Bundle files of one basename, and the candidate Locales resolved against them.
+     */
+    private static final class AvailableBundles {
+
+        /**
+         * Names of the bundles found, or {@code null} if unknown.
+         */
+        final Set<String> bundleNames;
+
+        final Map<Locale, List<Locale>> candidateLocales = new ConcurrentHashMap<>();
+
+        AvailableBundles(Set<String> bundleNames) {
+            this.bundleNames = bundleNames;
+        }
+    }
+
+    /**
+     * The bundles loaded through one ClassLoader, and everything derived from them.
+     * Only references its ClassLoader weakly, through its key.
+     */
+    private final class BundleCaches {
+
+        /**
+         * The key of the ClassLoader, or {@code null} for the bundle ClassLoader.
+         */
+        private final WeakKey<ClassLoader> classLoaderKey;
+
+        private final MessageSourceControl control = new MessageSourceControl(this);
+
+        /**
+         * Cache to hold loaded ResourceBundles.
+         * This Map is keyed with the bundle basename, which holds a Map that is
+         * keyed with the Locale and in turn holds the ResourceBundle instances.
+         * This allows for very efficient hash lookups, significantly faster
+         * than the ResourceBundle class's own cache.
+         */
+        private final Map<String, Map<Locale, ResourceBundle>> cachedResourceBundles =
+                new ConcurrentHashMap<>();
+
+        /**
+         * Cache to hold already resolved no-arg messages.
+         * This Map is keyed with the message code and holds a small immutable
+         * {@link LocalizedMessages} table of the resolved messages per canonical Locale.
+         * A cached message is found with a single hash lookup, without allocating
+         * a composite key. Codes which no bundle defines are cached as
+         * {@link #MISSING_MESSAGE}. Only used when caching forever or reloading
+         * in the background.
+         * <p>The whole Map is replaced when bundles are reloaded. Lookups write
+         * to the Map they started with, so a message resolved from a replaced
+         * bundle can never end up in the new Map.
+         * @see #resolveCodeWithoutArguments
+         */
+        private volatile Map<String, LocalizedMessages> cachedMessages = new ConcurrentHashMap<>();
+
+        /**
+         * Cache to hold already resolved no-arg messages by {@link MessageKey} ID per canonical Locale.
+         * Replaced along with {@link #cachedMessages} when bundles are reloaded.
+         * @see #getMessageByKey
+         */
+        private volatile Map<Locale, KeyedMessages> cachedKeyedMessages = new ConcurrentHashMap<>();
+
+        /**
+         * Cache to hold the UTF-8 encoding of already resolved no-arg messages,
+         * per canonical Locale and code. Replaced along with {@link #cachedMessages}
+         * when bundles are reloaded.
+         * @see #writeMessage(OutputStream, String, Object[], Locale)
+         */
+        private volatile Map<Locale, Map<String, byte[]>> cachedMessageBytes = new ConcurrentHashMap<>();
+
+        /**
+         * The code and Locale combinations cached as missing in {@link #cachedMessages},
+         * bounded by the {@link #setMissingMessageCacheLimit missing message cache limit}.
+         * Replaced along with {@link #cachedMessages} when bundles are reloaded.
+         */
+        private volatile ClockCache<MissingMessageKey, Boolean> cachedMissingMessages = newMissingMessageCache();
+
+        /**
+         * Bundles found on the classpath per basename, or {@link #NO_AVAILABLE_BUNDLES}
+         * if the basename could not be scanned.
+         * @see #setPrecomputeLocaleResolution
+         */
+        private final Map<String, AvailableBundles> availableBundles = new ConcurrentHashMap<>();
+
+        /**
+         * Canonical Locale per requested Locale, bounded by the
+         * {@link #setLocaleCacheLimit Locale cache limit}.
+         * @see #getCanonicalLocale
+         */
+        private volatile ClockCache<Locale, Locale> canonicalLocales = newCanonicalLocaleCache();
+
+        /**
+         * Canonical Locale per combination of bundle Locales of all basenames,
+         * which the bundle files on the classpath bound.
+         */
+        private final Map<List<Locale>, Locale> localesByBundleLocales = new ConcurrentHashMap<>();
+
+        /**
+         * Bundle loads in progress per basename and Locale, so that concurrent cache misses
+         * on the same bundle wait for a single load instead of each loading it again.
+         */
+        private final Map<String, Map<Locale, CompletableFuture<ResourceBundle>>> loadingResourceBundles =
+                new ConcurrentHashMap<>();
+
+        /**
+         * Canonical Locales whose bundles have already been loaded in parallel for all basenames.
+         * @see #setBundleLoadExecutor
+         */
+        private final Set<Locale> parallelLoadedLocales = ConcurrentHashMap.newKeySet();
+
+        /**
+         * Immutable snapshot of all messages of the bundle chain Locales requested so far,
+         * replaced as a whole whenever a Locale is added or bundles are reloaded.
+         * @see #setUseMessageSnapshot
+         */
+        private volatile MessageSnapshot messageSnapshot = MessageSnapshot.EMPTY;
+
+        /**
+         * Serializes building new message snapshots.
+         */
+        private final Object messageSnapshotMonitor = new Object();
+
+        BundleCaches(WeakKey<ClassLoader> classLoaderKey) {
+            this.classLoaderKey = classLoaderKey;
+        }
+
+        /**
+         * Return the ClassLoader to load the bundles with, or {@code null}
+         * if it has been garbage collected.
+         */
+        ClassLoader getClassLoader() {
+            return classLoaderKey != null ? classLoaderKey.get() : getBundleClassLoader();
+        }
+    }
+
     /**
      * Custom implementation of Java 6's {@code ResourceBundle.Control},
-     * adding support for custom file encodings, deactivating the fallback to the
-     * system locale and activating ResourceBundle's native cache, if desired.
+     * adding support for custom file encodings and precompiled message catalogs,
+     * deactivating the fallback to the system locale and activating
+     * ResourceBundle's native cache, if desired. One instance per
+     * {@link BundleCaches}, whose caches it reads and invalidates.
      */
     private class MessageSourceControl extends ResourceBundle.Control {
 
+        private final BundleCaches caches;
+
+        /**
+         * Basenames with properties files loaded from watched directories, whose bundles
+         * ResourceBundle must not cache so that the watcher can load them again.
+         * @see #setWatchBundleFiles
+         */
+        private final Set<String> watchedBaseNames = ConcurrentHashMap.newKeySet();
+
+        MessageSourceControl(BundleCaches caches) {
+            this.caches = caches;
+        }
+
         @Override
         public ResourceBundle newBundle(String baseName, Locale locale, String format, ClassLoader loader,
                                         boolean reload)
@@ -347,57 +2497,159 @@ public class ConcurrentResourceBundleMessageSource extends AbstractResourceBased
             // Special handling of default encoding
             if ("java.properties".equals(format)) {
                 String bundleName = toBundleName(baseName, locale);
-                final String resourceName = toResourceName(bundleName, "properties");
-                final ClassLoader classLoader = loader;
-                final boolean reloadFlag = reload;
-                InputStream stream;
-                try {
-                    stream = AccessController.doPrivileged(
-                            (PrivilegedExceptionAction<InputStream>) () -> {
-                                InputStream is = null;
-                                if (reloadFlag) {
-                                    URL url = classLoader.getResource(resourceName);
-                                    if (url != null) {
-                                        URLConnection connection = url.openConnection();
-                                        if (connection != null) {
-                                            connection.setUseCaches(false);
-                                            is = connection.getInputStream();
-                                        }
-                                    }
-                                } else {
-                                    is = classLoader.getResourceAsStream(resourceName);
-                                }
-                                return is;
-                            });
-                } catch (PrivilegedActionException ex) {
-                    throw (IOException) ex.getException();
-                }
-                if (stream != null) {
-                    String encoding = getDefaultEncoding();
-                    if (encoding == null) {
-                        encoding = "ISO-8859-1";
-                    }
-                    try {
-                        return loadBundle(new InputStreamReader(stream, encoding));
-                    } finally {
-                        stream.close();
+                String encoding = getDefaultEncoding();
+                if (encoding == null) {
+                    encoding = "ISO-8859-1";
+                }
+                if (isUsePrecompiledCatalogs() && getCacheMillis() < 0 && !watchBundleFiles) {
+                    MessageCatalog catalog = loadCatalog(
+                            loader, toResourceName(bundleName, MessageCatalog.FILE_EXTENSION), reload);
+                    if (catalog != null) {
+                        if (catalog.getSourceEncoding().equals(toCharset(encoding).name())) {
+                            return catalog;
+                        }
+                        if (logger.isWarnEnabled()) {
+                            logger.warn("Ignoring message catalog of [" + bundleName + "] compiled from " +
+                                        catalog.getSourceEncoding() + " instead of " + encoding);
+                        }
                     }
-                } else {
-                    return null;
                 }
+                return loadProperties(baseName, loader, toResourceName(bundleName, "properties"), encoding,
+                                      reload);
             } else {
                 // Delegate handling of "java.class" format to standard Control
                 return super.newBundle(baseName, locale, format, loader, reload);
             }
         }
 
+        /**
+         * Load the given message catalog, memory-mapping it if it is a file.
+         *
+         * @return the catalog, or {@code null} if it does not exist
+         */
+        private MessageCatalog loadCatalog(final ClassLoader classLoader, final String resourceName,
+                                           boolean reloadFlag) throws IOException {
+            URL url = AccessController.doPrivileged(
+                    (PrivilegedAction<URL>) () -> classLoader.getResource(resourceName));
+            if (url == null) {
+                return null;
+            }
+            if ("file".equals(url.getProtocol())) {
+                try {
+                    return MessageCatalog.map(Paths.get(url.toURI()));
+                } catch (URISyntaxException ex) {
+                    // Not a plain file path after all -> read it through the URL below.
+                }
+            }
+            URLConnection connection = url.openConnection();
+            connection.setUseCaches(!reloadFlag);
+            try (InputStream stream = connection.getInputStream()) {
+                return MessageCatalog.read(stream);
+            }
+        }
+
+        /**
+         * Load the given properties file, reading it through a FileChannel if it is a file.
+         *
+         * @return the bundle, or {@code null} if it does not exist
+         */
+        private ResourceBundle loadProperties(String baseName, final ClassLoader classLoader,
+                                              final String resourceName, String encoding, boolean reloadFlag)
+                throws IOException {
+            URL url = AccessController.doPrivileged(
+                    (PrivilegedAction<URL>) () -> classLoader.getResource(resourceName));
+            if (url == null) {
+                return null;
+            }
+            if ("file".equals(url.getProtocol())) {
+                try {
+                    Path file = Paths.get(url.toURI());
+                    if (watchBundleFiles) {
+                        watchedBaseNames.add(baseName);
+                        watchBundleFile(baseName, file);
+                    }
+                    return loadBundle(file, encoding);
+                } catch (URISyntaxException ex) {
+                    // Not a plain file path after all -> read it through the URL below.
+                }
+            }
+            URLConnection connection = url.openConnection();
+            connection.setUseCaches(!reloadFlag);
+            try (InputStream stream = connection.getInputStream()) {
+                return loadBundle(stream, encoding);
+            }
+        }
+
+        /**
+         * Skips the candidates without a bundle file when
+         * {@link #setPrecomputeLocaleResolution precomputing the locale resolution}.
+         */
+        @Override
+        public List<Locale> getCandidateLocales(String baseName, Locale locale) {
+            if (!precomputeLocaleResolution) {
+                return super.getCandidateLocales(baseName, locale);
+            }
+            AvailableBundles bundles = getAvailableBundles(caches, baseName);
+            if (bundles.bundleNames == null) {
+                return super.getCandidateLocales(baseName, locale);
+            }
+            List<Locale> candidateLocales = bundles.candidateLocales.get(locale);
+            if (candidateLocales == null) {
+                List<Locale> allCandidateLocales = super.getCandidateLocales(baseName, locale);
+                candidateLocales = new ArrayList<>();
+                for (Locale candidateLocale : allCandidateLocales) {
+                    // ResourceBundle expects the root Locale to end every list.
+                    if (Locale.ROOT.equals(candidateLocale) ||
+                        bundles.bundleNames.contains(toBundleName(baseName, candidateLocale))) {
+                        candidateLocales.add(candidateLocale);
+                    }
+                }
+                if (candidateLocales.size() == 1 && allCandidateLocales.size() > 1) {
+                    // ResourceBundle takes a list of only the root Locale as a request for the root
+                    // bundle, and would not try the fallback Locale.
+                    candidateLocales.add(0, allCandidateLocales.get(0));
+                }
+                bundles.candidateLocales.putIfAbsent(locale, candidateLocales);
+            }
+            return candidateLocales;
+        }
+
         @Override
         public Locale getFallbackLocale(String baseName, Locale locale) {
             return isFallbackToSystemLocale() ? super.getFallbackLocale(baseName, locale) : null;
         }
 
+        /**
+         * Return whether the bundle of the given basename and Locale is, or falls back to,
+         * a bundle of one of the given file names, whether or not the file exists.
+         */
+        boolean isResolvedThrough(String baseName, Locale locale, Set<String> fileNames) {
+            if (isCandidateFile(baseName, locale, fileNames)) {
+                return true;
+            }
+            Locale fallbackLocale = getFallbackLocale(baseName, locale);
+            return fallbackLocale != null && isCandidateFile(baseName, fallbackLocale, fileNames);
+        }
+
+        private boolean isCandidateFile(String baseName, Locale locale, Set<String> fileNames) {
+            for (Locale candidateLocale : super.getCandidateLocales(baseName, locale)) {
+                String resourceName = toResourceName(toBundleName(baseName, candidateLocale), "properties");
+                if (fileNames.contains(resourceName.substring(resourceName.lastIndexOf('/') + 1))) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
         @Override
         public long getTimeToLive(String baseName, Locale locale) {
+            if (watchBundleFiles) {
+                // The bundles of watched basenames are loaded fresh whenever the watcher reloads them,
+                // including those cached as missing, which a new file may replace. They stay cached
+                // by this MessageSource itself. Other basenames, e.g. those only found in jars, and
+                // the bundles of other libraries are cached by ResourceBundle as usual.
+                return watchedBaseNames.contains(baseName) ? TTL_DONT_CACHE : super.getTimeToLive(baseName, locale);
+            }
             long cacheMillis = getCacheMillis();
             return cacheMillis >= 0 ? cacheMillis : super.getTimeToLive(baseName, locale);
         }
@@ -406,7 +2658,8 @@ public class ConcurrentResourceBundleMessageSource extends AbstractResourceBased
         public boolean needsReload(String baseName, Locale locale, String format, ClassLoader loader,
                                    ResourceBundle bundle, long loadTime) {
             if (super.needsReload(baseName, locale, format, loader, bundle, loadTime)) {
-                cachedBundleMessageFormats.remove(bundle);
+                evictMessageTemplates(bundle);
+                clearCachedMessages(caches);
                 return true;
             } else {
                 return false;
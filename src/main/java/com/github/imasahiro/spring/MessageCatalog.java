@@ -0,0 +1,425 @@
+/*
+ * Copyright 2017 LINE Corporation
+ *
+ * LINE Corporation licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.github.imasahiro.spring;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.ResourceBundle;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * {@link ResourceBundle} backed by a precompiled binary message catalog.
+ *
+ * <p>Catalogs are generated at build time from {@code .properties} files by
+ * {@link MessageCatalogCompiler} and stored next to them with the
+ * {@value #FILE_EXTENSION} extension. A catalog is not parsed into a Map of
+ * Strings: lookups go through a perfect-hash index directly on the catalog
+ * bytes, and only the value that was asked for is decoded. Catalogs on the
+ * file system are memory-mapped, so they are not copied to the heap at all.
+ *
+ * <p>Layout, with all integers as big-endian 32-bit values:
+ * <ol>
+ *     <li>magic number, format version, entry count, slot count and length of the
+ *         name of the source encoding</li>
+ *     <li>the name of the encoding the {@code .properties} file was read with, in US-ASCII</li>
+ *     <li>one displacement per slot, selecting the hash seed of a bucket of keys,
+ *         or directly encoding the slot of a single-key bucket</li>
+ *     <li>one entry per slot: key offset, key length, value offset and value length,
+ *         with a key length of -1 for empty slots</li>
+ *     <li>the UTF-8 encoded keys and values, referred to by the entries</li>
+ * </ol>
+ *
+ * @see MessageCatalogCompiler
+ */
+public final class MessageCatalog extends ResourceBundle {
+
+    /**
+     * File extension of precompiled message catalogs.
+     */
+    public static final String FILE_EXTENSION = "catalog";
+
+    private static final int MAGIC = 0x4d534743; // "MSGC"
+
+    private static final int VERSION = 4;
+
+    private static final int HEADER_SIZE = 20;
+
+    private static final int ENTRY_SIZE = 16;
+
+    private static final int FNV_PRIME = 0x01000193;
+
+    /**
+     * Number of seeds to try for a bucket before giving up, far beyond what
+     * any bucket of a well-mixed hash needs.
+     */
+    private static final int MAX_SEED = 1 << 24;
+
+    private final ByteBuffer buffer;
+
+    private final int size;
+
+    private final int slotCount;
+
+    private final String sourceEncoding;
+
+    private final int displacementsOffset;
+
+    private final int entriesOffset;
+
+    private final int dataOffset;
+
+    private volatile Set<String> keySet;
+
+    private MessageCatalog(ByteBuffer buffer) throws IOException {
+        if (buffer.remaining() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a message catalog");
+        }
+        int version = buffer.getInt(4);
+        if (version != VERSION) {
+            throw new IOException("Unsupported message catalog version: " + version);
+        }
+        this.buffer = buffer;
+        size = buffer.getInt(8);
+        slotCount = buffer.getInt(12);
+        int sourceEncodingLength = buffer.getInt(16);
+        displacementsOffset = HEADER_SIZE + sourceEncodingLength;
+        entriesOffset = displacementsOffset + slotCount * 4;
+        dataOffset = entriesOffset + slotCount * ENTRY_SIZE;
+        if (sourceEncodingLength < 0 || dataOffset > buffer.limit()) {
+            throw new IOException("Truncated message catalog");
+        }
+        byte[] sourceEncodingBytes = new byte[sourceEncodingLength];
+        ByteBuffer source = buffer.duplicate();
+        source.position(HEADER_SIZE);
+        source.get(sourceEncodingBytes);
+        sourceEncoding = new String(sourceEncodingBytes, StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Read a message catalog from the given stream into the heap.
+     * The stream is not closed.
+     *
+     * @param in the stream to read the catalog from
+     *
+     * @return the loaded catalog
+     *
+     * @throws IOException if the stream does not contain a supported catalog
+     */
+    public static MessageCatalog read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(8192);
+        byte[] chunk = new byte[8192];
+        int read;
+        while ((read = in.read(chunk)) >= 0) {
+            out.write(chunk, 0, read);
+        }
+        return new MessageCatalog(ByteBuffer.wrap(out.toByteArray()));
+    }
+
+    /**
+     * Memory-map the message catalog in the given file.
+     *
+     * <p>The mapping stays valid after the file is replaced, as long as the file is
+     * replaced by moving a new one into place rather than rewriting it, which is
+     * what {@link MessageCatalogCompiler} does.
+     *
+     * @param file the catalog file
+     *
+     * @return the mapped catalog
+     *
+     * @throws IOException if the file does not contain a supported catalog
+     */
+    public static MessageCatalog map(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return new MessageCatalog(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Write the given messages as a message catalog to the given stream.
+     * The stream is flushed but not closed.
+     *
+     * @param messages the messages to write, keyed by message code
+     * @param sourceEncoding the encoding the messages were read with
+     * @param out the stream to write the catalog to
+     *
+     * @throws IOException in case of I/O failure
+     */
+    public static void write(Map<String, String> messages, Charset sourceEncoding, OutputStream out)
+            throws IOException {
+        // Sorted, so that the same input always produces the same catalog.
+        List<String> keys = new ArrayList<>(new TreeMap<>(messages).keySet());
+        int slotCount = keys.size();
+        int[] displacements = new int[slotCount];
+        String[] slots = new String[slotCount];
+        placeKeys(keys, displacements, slots);
+
+        DataOutputStream output = new DataOutputStream(new BufferedOutputStream(out));
+        output.writeInt(MAGIC);
+        output.writeInt(VERSION);
+        output.writeInt(keys.size());
+        output.writeInt(slotCount);
+        byte[] sourceEncodingBytes = sourceEncoding.name().getBytes(StandardCharsets.US_ASCII);
+        output.writeInt(sourceEncodingBytes.length);
+        output.write(sourceEncodingBytes);
+        for (int displacement : displacements) {
+            output.writeInt(displacement);
+        }
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        for (String key : slots) {
+            if (key == null) {
+                output.writeInt(0);
+                output.writeInt(-1);
+                output.writeInt(0);
+                output.writeInt(0);
+                continue;
+            }
+            byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+            byte[] valueBytes = messages.get(key).getBytes(StandardCharsets.UTF_8);
+            output.writeInt(data.size());
+            output.writeInt(keyBytes.length);
+            data.write(keyBytes);
+            output.writeInt(data.size());
+            output.writeInt(valueBytes.length);
+            data.write(valueBytes);
+        }
+        data.writeTo(output);
+        output.flush();
+    }
+
+    /**
+     * Build a perfect hash of the given keys with the "hash, displace" scheme:
+     * keys are grouped into buckets by their seed 0 hash, and each bucket, largest
+     * first, searches for a seed which moves all of its keys to free slots.
+     * Single-key buckets are put into the remaining free slots directly.
+     */
+    private static void placeKeys(List<String> keys, int[] displacements, String[] slots) {
+        int slotCount = slots.length;
+        List<List<String>> buckets = new ArrayList<>(slotCount);
+        for (int i = 0; i < slotCount; i++) {
+            buckets.add(new ArrayList<>(1));
+        }
+        for (String key : keys) {
+            buckets.get(slot(hash(0, key), slotCount)).add(key);
+        }
+        buckets.sort((a, b) -> b.size() - a.size());
+
+        int bucketIndex = 0;
+        for (; bucketIndex < slotCount && buckets.get(bucketIndex).size() > 1; bucketIndex++) {
+            List<String> bucket = buckets.get(bucketIndex);
+            int[] placed = new int[bucket.size()];
+            int seed = 1;
+            int item = 0;
+            while (item < bucket.size()) {
+                int slot = slot(hash(seed, bucket.get(item)), slotCount);
+                if (slots[slot] != null || contains(placed, item, slot)) {
+                    if (++seed > MAX_SEED) {
+                        throw new IllegalStateException("Cannot place the keys " + bucket + " in a catalog");
+                    }
+                    item = 0;
+                } else {
+                    placed[item++] = slot;
+                }
+            }
+            displacements[slot(hash(0, bucket.get(0)), slotCount)] = seed;
+            for (int i = 0; i < placed.length; i++) {
+                slots[placed[i]] = bucket.get(i);
+            }
+        }
+
+        int freeSlot = 0;
+        for (; bucketIndex < slotCount && buckets.get(bucketIndex).size() == 1; bucketIndex++) {
+            while (slots[freeSlot] != null) {
+                freeSlot++;
+            }
+            String key = buckets.get(bucketIndex).get(0);
+            displacements[slot(hash(0, key), slotCount)] = -freeSlot - 1;
+            slots[freeSlot] = key;
+        }
+    }
+
+    private static boolean contains(int[] values, int length, int value) {
+        for (int i = 0; i < length; i++) {
+            if (values[i] == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * FNV-style hash of the UTF-16 code units of the given key, so that
+     * lookups need not encode the key.
+     */
+    private static int hash(int seed, String key) {
+        int hash = seed != 0 ? seed : FNV_PRIME;
+        for (int i = 0; i < key.length(); i++) {
+            hash = (hash * FNV_PRIME) ^ key.charAt(i);
+        }
+        return hash;
+    }
+
+    /**
+     * Map the given hash to a slot, after spreading all of its bits with the MurmurHash3
+     * finalizer. The low bits of the raw hash do not depend on the seed, e.g. the parity
+     * of its slots, so two keys could otherwise collide for every seed.
+     */
+    private static int slot(int hash, int slotCount) {
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        hash *= 0xc2b2ae35;
+        hash ^= hash >>> 16;
+        return (hash & 0x7fffffff) % slotCount;
+    }
+
+    /**
+     * Return the index of the entry of the given key, or -1 if it is not in this catalog.
+     */
+    private int findEntry(String key) {
+        if (slotCount == 0) {
+            return -1;
+        }
+        int displacement = buffer.getInt(displacementsOffset + slot(hash(0, key), slotCount) * 4);
+        int slot = displacement < 0 ? -displacement - 1 : slot(hash(displacement, key), slotCount);
+        int entry = entriesOffset + slot * ENTRY_SIZE;
+        int keyLength = buffer.getInt(entry + 4);
+        if (keyLength < 0 || !keyEquals(dataOffset + buffer.getInt(entry), keyLength, key)) {
+            return -1;
+        }
+        return entry;
+    }
+
+    /**
+     * Compare the UTF-8 encoded key at the given offset to the given String,
+     * without decoding it.
+     */
+    private boolean keyEquals(int offset, int length, String key) {
+        int end = offset + length;
+        int index = 0;
+        while (offset < end) {
+            int b = buffer.get(offset) & 0xff;
+            int codePoint;
+            if (b < 0x80) {
+                codePoint = b;
+                offset += 1;
+            } else if (b < 0xe0) {
+                codePoint = (b & 0x1f) << 6 | buffer.get(offset + 1) & 0x3f;
+                offset += 2;
+            } else if (b < 0xf0) {
+                codePoint = (b & 0x0f) << 12 | (buffer.get(offset + 1) & 0x3f) << 6 |
+                            buffer.get(offset + 2) & 0x3f;
+                offset += 3;
+            } else {
+                codePoint = (b & 0x07) << 18 | (buffer.get(offset + 1) & 0x3f) << 12 |
+                            (buffer.get(offset + 2) & 0x3f) << 6 | buffer.get(offset + 3) & 0x3f;
+                offset += 4;
+            }
+            if (Character.isBmpCodePoint(codePoint)) {
+                if (index >= key.length() || key.charAt(index++) != codePoint) {
+                    return false;
+                }
+            } else if (index + 1 >= key.length() ||
+                       key.charAt(index++) != Character.highSurrogate(codePoint) ||
+                       key.charAt(index++) != Character.lowSurrogate(codePoint)) {
+                return false;
+            }
+        }
+        return index == key.length();
+    }
+
+    private String decode(int offset, int length) {
+        byte[] bytes = new byte[length];
+        ByteBuffer source = buffer.duplicate();
+        source.position(dataOffset + offset);
+        source.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Return the canonical name of the encoding the {@code .properties} file of this
+     * catalog was read with, e.g. {@code UTF-8}.
+     *
+     * @see Charset#name()
+     */
+    public String getSourceEncoding() {
+        return sourceEncoding;
+    }
+
+    @Override
+    protected Object handleGetObject(String key) {
+        if (key == null) {
+            throw new NullPointerException();
+        }
+        int entry = findEntry(key);
+        return entry >= 0 ? decode(buffer.getInt(entry + 8), buffer.getInt(entry + 12)) : null;
+    }
+
+    @Override
+    public boolean containsKey(String key) {
+        if (key == null) {
+            throw new NullPointerException();
+        }
+        return findEntry(key) >= 0 || parent != null && parent.containsKey(key);
+    }
+
+    @Override
+    public Enumeration<String> getKeys() {
+        if (parent == null) {
+            return Collections.enumeration(handleKeySet());
+        }
+        Set<String> keys = new HashSet<>(handleKeySet());
+        keys.addAll(Collections.list(parent.getKeys()));
+        return Collections.enumeration(keys);
+    }
+
+    @Override
+    protected Set<String> handleKeySet() {
+        Set<String> keySet = this.keySet;
+        if (keySet == null) {
+            String[] keys = new String[size];
+            int index = 0;
+            for (int slot = 0; slot < slotCount; slot++) {
+                int entry = entriesOffset + slot * ENTRY_SIZE;
+                int keyLength = buffer.getInt(entry + 4);
+                if (keyLength >= 0) {
+                    keys[index++] = decode(buffer.getInt(entry), keyLength);
+                }
+            }
+            keySet = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(keys)));
+            this.keySet = keySet;
+        }
+        return keySet;
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2017 LINE Corporation
+ *
+ * LINE Corporation licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.github.imasahiro.spring;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Build-time compiler of {@code .properties} message bundles into
+ * {@link MessageCatalog message catalogs}.
+ *
+ * <p>Usage: {@code MessageCatalogCompiler <encoding> <include> <outputDir> <sourceDir>...}.
+ * Every file below a source directory whose name matches the {@code include} glob
+ * (e.g. {@code messages*.properties}) is parsed with the given encoding, as
+ * {@link ConcurrentResourceBundleMessageSource} would at runtime, and written to
+ * the same relative path below the output directory with the
+ * {@value MessageCatalog#FILE_EXTENSION} extension. The encoding is recorded in
+ * each catalog, which is only used by a MessageSource with the same
+ * {@link ConcurrentResourceBundleMessageSource#setDefaultEncoding default encoding}.
+ */
+public final class MessageCatalogCompiler {
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 4) {
+            System.err.println("Usage: " + MessageCatalogCompiler.class.getSimpleName() +
+                               " <encoding> <include> <outputDir> <sourceDir>...");
+            System.exit(1);
+        }
+        Charset encoding = Charset.forName(args[0]);
+        PathMatcher include = FileSystems.getDefault().getPathMatcher("glob:" + args[1]);
+        Path outputDir = Paths.get(args[2]);
+        int count = 0;
+        for (int i = 3; i < args.length; i++) {
+            Path sourceDir = Paths.get(args[i]);
+            if (!Files.isDirectory(sourceDir)) {
+                continue;
+            }
+            List<Path> sources;
+            try (Stream<Path> files = Files.walk(sourceDir)) {
+                sources = files.filter(file -> include.matches(file.getFileName()) && Files.isRegularFile(file))
+                               .collect(Collectors.toCollection(ArrayList::new));
+            }
+            for (Path source : sources) {
+                compile(source, outputDir.resolve(toCatalogPath(sourceDir.relativize(source))), encoding);
+                count++;
+            }
+        }
+        System.out.println("Compiled " + count + " message catalog(s) into " + outputDir);
+    }
+
+    /**
+     * Compile a single {@code .properties} file into a message catalog.
+     *
+     * @param source the properties file to read
+     * @param target the catalog file to write
+     * @param encoding the encoding of the properties file
+     *
+     * @throws IOException in case of I/O failure
+     */
+    public static void compile(Path source, Path target, Charset encoding) throws IOException {
+        PropertiesBundle properties;
+        try (InputStream in = Files.newInputStream(source)) {
+            properties = PropertiesBundle.read(in, encoding);
+        }
+        Map<String, String> messages = new HashMap<>();
+        for (String key : properties.keySet()) {
+            messages.put(key, properties.getString(key));
+        }
+        Path parent = target.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        // Move the new catalog into place instead of rewriting the old one,
+        // which running applications may still have memory-mapped.
+        Path temporary = Files.createTempFile(parent, target.getFileName().toString(), ".tmp");
+        try {
+            try (OutputStream out = Files.newOutputStream(temporary)) {
+                MessageCatalog.write(messages, encoding, out);
+            }
+            Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    private static Path toCatalogPath(Path properties) {
+        String fileName = properties.getFileName().toString();
+        int extension = fileName.lastIndexOf('.');
+        String baseName = extension >= 0 ? fileName.substring(0, extension) : fileName;
+        return properties.resolveSibling(baseName + '.' + MessageCatalog.FILE_EXTENSION);
+    }
+
+    private MessageCatalogCompiler() {}
+}
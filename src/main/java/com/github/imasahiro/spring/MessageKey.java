@@ -0,0 +1,62 @@
+/*
+ * Copyright 2017 LINE Corporation
+ *
+ * LINE Corporation licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.github.imasahiro.spring;
+
+/**
+ * Handle of a message code, bound to a dense integer ID by the
+ * {@link ConcurrentResourceBundleMessageSource} that created it.
+ *
+ * <p>Resolving a message through a handle indexes a per-Locale array with its ID
+ * instead of hashing and comparing the code. Obtain handles once, e.g. in a static
+ * field or at startup, with {@link ConcurrentResourceBundleMessageSource#getMessageKey},
+ * and resolve them with {@link ConcurrentResourceBundleMessageSource#getMessageByKey}.
+ * A handle may only be used with the MessageSource that created it.
+ */
+public final class MessageKey {
+
+    private final ConcurrentResourceBundleMessageSource messageSource;
+
+    private final String code;
+
+    private final int id;
+
+    MessageKey(ConcurrentResourceBundleMessageSource messageSource, String code, int id) {
+        this.messageSource = messageSource;
+        this.code = code;
+        this.id = id;
+    }
+
+    ConcurrentResourceBundleMessageSource getMessageSource() {
+        return messageSource;
+    }
+
+    /**
+     * Return the message code of this handle.
+     */
+    public String getCode() {
+        return code;
+    }
+
+    int getId() {
+        return id;
+    }
+
+    @Override
+    public String toString() {
+        return code;
+    }
+}
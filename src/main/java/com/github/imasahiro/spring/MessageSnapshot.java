@@ -0,0 +1,95 @@
+/*
+ * Copyright 2017 LINE Corporation
+ *
+ * LINE Corporation licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.github.imasahiro.spring;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable snapshot of all messages of a {@link ConcurrentResourceBundleMessageSource}
+ * for a set of Locales, with every message already resolved across the basenames
+ * and precompiled into a {@link MessageTemplate}.
+ *
+ * <p>A snapshot is never modified once built. Adding a Locale or reloading bundles
+ * builds a new snapshot, which replaces the old one as a whole. Lookups are thus two
+ * reads of plain {@link HashMap}s, which are safely published through the final fields
+ * of this class.
+ */
+final class MessageSnapshot {
+
+    static final MessageSnapshot EMPTY = new MessageSnapshot(Collections.emptyMap(), 0);
+
+    private final Map<Locale, Map<String, Entry>> messages;
+
+    private final int generation;
+
+    MessageSnapshot(Map<Locale, Map<String, Entry>> messages, int generation) {
+        this.messages = messages;
+        this.generation = generation;
+    }
+
+    /**
+     * Return the messages of the given Locale keyed by code,
+     * or {@code null} if the Locale is not part of this snapshot.
+     */
+    Map<String, Entry> getMessages(Locale locale) {
+        return messages.get(locale);
+    }
+
+    Set<Locale> getLocales() {
+        return messages.keySet();
+    }
+
+    /**
+     * Return the number of times the bundles have been reloaded before this snapshot
+     * was built. Snapshots that only add Locales keep the generation of their base.
+     */
+    int getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Return a copy of this snapshot that also holds the given messages of the given Locale.
+     */
+    MessageSnapshot withLocale(Locale locale, Map<String, Entry> localeMessages) {
+        Map<Locale, Map<String, Entry>> newMessages = new HashMap<>(messages);
+        newMessages.put(locale, localeMessages);
+        return new MessageSnapshot(newMessages, generation);
+    }
+
+    /**
+     * A resolved message and its template.
+     */
+    static final class Entry {
+
+        final String message;
+
+        /**
+         * The compiled message, or {@code null} if the message is not a valid
+         * {@link java.text.MessageFormat} pattern and can only be used without arguments.
+         */
+        final MessageTemplate template;
+
+        Entry(String message, MessageTemplate template) {
+            this.message = message;
+            this.template = template;
+        }
+    }
+}
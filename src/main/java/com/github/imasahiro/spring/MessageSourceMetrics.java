@@ -0,0 +1,272 @@
+/*
+ * Copyright 2017 LINE Corporation
+ *
+ * LINE Corporation licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.github.imasahiro.spring;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of the caches of a {@link ConcurrentResourceBundleMessageSource}.
+ *
+ * <p>All counters are {@link LongAdder}s, which spread concurrent updates over
+ * separate cells instead of contending on a single value, so recording does not
+ * slow down the lookup path. Use {@link #snapshot()} to read them.
+ *
+ * @see ConcurrentResourceBundleMessageSource#getMetrics()
+ */
+public final class MessageSourceMetrics {
+
+    final LongAdder bundleCacheHits = new LongAdder();
+
+    final LongAdder bundleCacheMisses = new LongAdder();
+
+    final LongAdder bundleLoads = new LongAdder();
+
+    final LongAdder bundleLoadNanos = new LongAdder();
+
+    final LongAdder bundleLoadsAvoided = new LongAdder();
+
+    final LongAdder templateCacheHits = new LongAdder();
+
+    final LongAdder templateCacheMisses = new LongAdder();
+
+    final LongAdder templateCreations = new LongAdder();
+
+    final LongAdder templateCreationsAvoided = new LongAdder();
+
+    final LongAdder templateEvictions = new LongAdder();
+
+    final LongAdder messageCacheHits = new LongAdder();
+
+    final LongAdder messageCacheMisses = new LongAdder();
+
+    final LongAdder missingMessageCacheHits = new LongAdder();
+
+    final LongAdder missingMessageEvictions = new LongAdder();
+
+    final LongAdder missingCodes = new LongAdder();
+
+    final LongAdder localeEvictions = new LongAdder();
+
+    MessageSourceMetrics() {}
+
+    /**
+     * Return the current values of all counters. Counters are read one by one
+     * while lookups may continue, so the snapshot is not an atomic cut.
+     */
+    public Snapshot snapshot() {
+        return new Snapshot(this);
+    }
+
+    /**
+     * Values of the counters of a {@link MessageSourceMetrics} at one point in time.
+     */
+    public static final class Snapshot {
+
+        private final long bundleCacheHits;
+
+        private final long bundleCacheMisses;
+
+        private final long bundleLoads;
+
+        private final long bundleLoadNanos;
+
+        private final long bundleLoadsAvoided;
+
+        private final long templateCacheHits;
+
+        private final long templateCacheMisses;
+
+        private final long templateCreations;
+
+        private final long templateCreationsAvoided;
+
+        private final long templateEvictions;
+
+        private final long messageCacheHits;
+
+        private final long messageCacheMisses;
+
+        private final long missingMessageCacheHits;
+
+        private final long missingMessageEvictions;
+
+        private final long missingCodes;
+
+        private final long localeEvictions;
+
+        private Snapshot(MessageSourceMetrics metrics) {
+            bundleCacheHits = metrics.bundleCacheHits.sum();
+            bundleCacheMisses = metrics.bundleCacheMisses.sum();
+            bundleLoads = metrics.bundleLoads.sum();
+            bundleLoadNanos = metrics.bundleLoadNanos.sum();
+            bundleLoadsAvoided = metrics.bundleLoadsAvoided.sum();
+            templateCacheHits = metrics.templateCacheHits.sum();
+            templateCacheMisses = metrics.templateCacheMisses.sum();
+            templateCreations = metrics.templateCreations.sum();
+            templateCreationsAvoided = metrics.templateCreationsAvoided.sum();
+            templateEvictions = metrics.templateEvictions.sum();
+            messageCacheHits = metrics.messageCacheHits.sum();
+            messageCacheMisses = metrics.messageCacheMisses.sum();
+            missingMessageCacheHits = metrics.missingMessageCacheHits.sum();
+            missingMessageEvictions = metrics.missingMessageEvictions.sum();
+            missingCodes = metrics.missingCodes.sum();
+            localeEvictions = metrics.localeEvictions.sum();
+        }
+
+        /**
+         * Return the number of ResourceBundles served from the bundle cache.
+         */
+        public long getBundleCacheHits() {
+            return bundleCacheHits;
+        }
+
+        /**
+         * Return the number of ResourceBundle lookups that missed the bundle cache.
+         */
+        public long getBundleCacheMisses() {
+            return bundleCacheMisses;
+        }
+
+        /**
+         * Return the number of ResourceBundles obtained from {@link java.util.ResourceBundle#getBundle}.
+         */
+        public long getBundleLoads() {
+            return bundleLoads;
+        }
+
+        /**
+         * Return the total time spent obtaining ResourceBundles, in the given unit.
+         */
+        public long getBundleLoadTime(TimeUnit unit) {
+            return unit.convert(bundleLoadNanos, TimeUnit.NANOSECONDS);
+        }
+
+        /**
+         * Return the number of bundle cache misses that waited for the load of
+         * another thread instead of loading the same bundle again.
+         */
+        public long getBundleLoadsAvoided() {
+            return bundleLoadsAvoided;
+        }
+
+        /**
+         * Return the number of message templates served from the template cache.
+         */
+        public long getTemplateCacheHits() {
+            return templateCacheHits;
+        }
+
+        /**
+         * Return the number of message template lookups that missed the template cache.
+         */
+        public long getTemplateCacheMisses() {
+            return templateCacheMisses;
+        }
+
+        /**
+         * Return the number of message templates compiled, the equivalent of
+         * creating a {@link java.text.MessageFormat}.
+         */
+        public long getTemplateCreations() {
+            return templateCreations;
+        }
+
+        /**
+         * Return the number of template cache misses that got the template compiled
+         * by another thread instead of compiling the same pattern again.
+         */
+        public long getTemplateCreationsAvoided() {
+            return templateCreationsAvoided;
+        }
+
+        /**
+         * Return the number of message templates evicted from the template cache
+         * to stay within its limit.
+         *
+         * @see ConcurrentResourceBundleMessageSource#setTemplateCacheLimit(int)
+         */
+        public long getTemplateEvictions() {
+            return templateEvictions;
+        }
+
+        /**
+         * Return the number of no-arg messages served from the resolved message cache.
+         */
+        public long getMessageCacheHits() {
+            return messageCacheHits;
+        }
+
+        /**
+         * Return the number of no-arg message lookups that missed the resolved message cache.
+         */
+        public long getMessageCacheMisses() {
+            return messageCacheMisses;
+        }
+
+        /**
+         * Return the number of lookups answered by the cache of missing codes.
+         */
+        public long getMissingMessageCacheHits() {
+            return missingMessageCacheHits;
+        }
+
+        /**
+         * Return the number of missing codes evicted from the cache of missing codes
+         * to stay within its limit.
+         *
+         * @see ConcurrentResourceBundleMessageSource#setMissingMessageCacheLimit(int)
+         */
+        public long getMissingMessageEvictions() {
+            return missingMessageEvictions;
+        }
+
+        /**
+         * Return the number of lookups of codes that none of the bundles define.
+         */
+        public long getMissingCodes() {
+            return missingCodes;
+        }
+
+        /**
+         * Return the number of requested Locales evicted from the cache of their canonical
+         * Locales to stay within its limit.
+         *
+         * @see ConcurrentResourceBundleMessageSource#setLocaleCacheLimit(int)
+         */
+        public long getLocaleEvictions() {
+            return localeEvictions;
+        }
+
+        @Override
+        public String toString() {
+            return "bundleCache=" + bundleCacheHits + '/' + bundleCacheMisses +
+                   ", bundleLoads=" + bundleLoads +
+                   ", bundleLoadTime=" + getBundleLoadTime(TimeUnit.MILLISECONDS) + "ms" +
+                   ", bundleLoadsAvoided=" + bundleLoadsAvoided +
+                   ", templateCache=" + templateCacheHits + '/' + templateCacheMisses +
+                   ", templateCreations=" + templateCreations +
+                   ", templateCreationsAvoided=" + templateCreationsAvoided +
+                   ", templateEvictions=" + templateEvictions +
+                   ", messageCache=" + messageCacheHits + '/' + messageCacheMisses +
+                   ", missingMessageCacheHits=" + missingMessageCacheHits +
+                   ", missingMessageEvictions=" + missingMessageEvictions +
+                   ", missingCodes=" + missingCodes +
+                   ", localeEvictions=" + localeEvictions;
+        }
+    }
+}
@@ -0,0 +1,258 @@
+/*
+ * Copyright 2017 LINE Corporation
+ *
+ * LINE Corporation licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.github.imasahiro.spring;
+
+import java.io.IOException;
+import java.text.ChoiceFormat;
+import java.text.DateFormat;
+import java.text.Format;
+import java.text.MessageFormat;
+import java.text.NumberFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Immutable, precompiled form of a {@link MessageFormat} pattern.
+ *
+ * <p>A {@link MessageFormat} is not thread-safe, so a shared instance has to be
+ * formatted under a lock. A MessageTemplate splits the pattern into its literal
+ * text and argument placeholders once, and can then be formatted by any number
+ * of threads at the same time. Sub-formats such as {@link NumberFormat} and
+ * {@link DateFormat} are kept as prototypes and cloned for each use.
+ *
+ * <p>The output is the same as {@link MessageFormat#format(Object)} for the same
+ * pattern and Locale, including {@code {0,number}}, {@code {0,date}} and
+ * {@code {0,choice}} placeholders.
+ *
+ * @see MessageFormat
+ */
+public final class MessageTemplate {
+
+    private final String pattern;
+
+    private final Locale locale;
+
+    /**
+     * Literal text around the placeholders, with quotes already resolved.
+     * Always holds one more element than {@link #argumentIndexes}.
+     */
+    private final String[] literals;
+
+    private final int[] argumentIndexes;
+
+    /**
+     * Prototype sub-format per placeholder, or {@code null} for a plain {@code {n}}.
+     * Never used for formatting directly, so it is never mutated.
+     */
+    private final Format[] formats;
+
+    private MessageTemplate(String pattern, Locale locale, String[] literals, int[] argumentIndexes,
+                            Format[] formats) {
+        this.pattern = pattern;
+        this.locale = locale;
+        this.literals = literals;
+        this.argumentIndexes = argumentIndexes;
+        this.formats = formats;
+    }
+
+    /**
+     * Compile the given {@link MessageFormat} pattern.
+     *
+     * @param pattern the pattern to compile
+     * @param locale the Locale to format arguments with
+     *
+     * @return the compiled template
+     *
+     * @throws IllegalArgumentException if the pattern is invalid
+     */
+    public static MessageTemplate compile(String pattern, Locale locale) {
+        // Let MessageFormat validate the pattern, so that invalid patterns fail the same way.
+        new MessageFormat(pattern, locale);
+
+        List<String> literals = new ArrayList<>();
+        List<Integer> argumentIndexes = new ArrayList<>();
+        List<Format> formats = new ArrayList<>();
+        StringBuilder literal = new StringBuilder();
+        boolean inQuote = false;
+        int length = pattern.length();
+        for (int i = 0; i < length; i++) {
+            char ch = pattern.charAt(i);
+            if (ch == '\'') {
+                if (i + 1 < length && pattern.charAt(i + 1) == '\'') {
+                    literal.append(ch);
+                    i++;
+                } else {
+                    inQuote = !inQuote;
+                }
+            } else if (ch == '{' && !inQuote) {
+                int end = findPlaceholderEnd(pattern, i);
+                if (end < 0) {
+                    // MessageFormat silently drops an unterminated nested placeholder.
+                    break;
+                }
+                String placeholder = pattern.substring(i, end + 1);
+                literals.add(literal.toString());
+                literal.setLength(0);
+                argumentIndexes.add(parseArgumentIndex(placeholder));
+                formats.add(new MessageFormat(placeholder, locale).getFormats()[0]);
+                i = end;
+            } else {
+                literal.append(ch);
+            }
+        }
+        literals.add(literal.toString());
+
+        int[] indexes = new int[argumentIndexes.size()];
+        for (int i = 0; i < indexes.length; i++) {
+            indexes[i] = argumentIndexes.get(i);
+        }
+        return new MessageTemplate(pattern, locale, literals.toArray(new String[0]), indexes,
+                                   formats.toArray(new Format[0]));
+    }
+
+    /**
+     * Return the index of the '}' closing the placeholder that starts at the given
+     * index, or {@code -1} if it is not terminated. Follows the quoting and brace
+     * nesting rules of {@link MessageFormat#applyPattern(String)}.
+     */
+    private static int findPlaceholderEnd(String pattern, int start) {
+        boolean inQuote = false;
+        int braceStack = 0;
+        for (int i = start + 1; i < pattern.length(); i++) {
+            char ch = pattern.charAt(i);
+            if (inQuote) {
+                if (ch == '\'') {
+                    inQuote = false;
+                }
+            } else if (ch == '\'') {
+                inQuote = true;
+            } else if (ch == '{') {
+                braceStack++;
+            } else if (ch == '}') {
+                if (braceStack == 0) {
+                    return i;
+                }
+                braceStack--;
+            }
+        }
+        return -1;
+    }
+
+    private static int parseArgumentIndex(String placeholder) {
+        int end = placeholder.indexOf(',');
+        return Integer.parseInt(placeholder.substring(1, end >= 0 ? end : placeholder.length() - 1));
+    }
+
+    /**
+     * Return the pattern this template was compiled from.
+     */
+    public String getPattern() {
+        return pattern;
+    }
+
+    /**
+     * Return the Locale arguments are formatted with.
+     */
+    public Locale getLocale() {
+        return locale;
+    }
+
+    /**
+     * Format the given arguments, as {@link MessageFormat#format(Object)} would.
+     * Safe to call from multiple threads at the same time.
+     *
+     * @param arguments the arguments to substitute, may be {@code null}
+     *
+     * @return the formatted message
+     */
+    public String format(Object... arguments) {
+        StringBuilder result = new StringBuilder(pattern.length() + 16);
+        formatTo(result, arguments);
+        return result.toString();
+    }
+
+    /**
+     * Format the given arguments into the given StringBuilder.
+     *
+     * @see #format(Object...)
+     */
+    public void formatTo(StringBuilder result, Object[] arguments) {
+        try {
+            formatTo((Appendable) result, arguments);
+        } catch (IOException ex) {
+            // StringBuilder never throws IOException.
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Format the given arguments directly into the given Appendable, such as a
+     * {@link java.io.Writer} of a response, without creating the whole message as
+     * a String first.
+     *
+     * @throws IOException if appending to {@code result} fails
+     *
+     * @see #format(Object...)
+     */
+    public void formatTo(Appendable result, Object[] arguments) throws IOException {
+        for (int i = 0; i < argumentIndexes.length; i++) {
+            result.append(literals[i]);
+            int argumentIndex = argumentIndexes[i];
+            if (arguments == null || argumentIndex >= arguments.length) {
+                result.append('{').append(Integer.toString(argumentIndex)).append('}');
+                continue;
+            }
+            Object argument = arguments[argumentIndex];
+            Format format = formats[i];
+            if (argument == null) {
+                result.append("null");
+            } else if (format != null) {
+                String formatted = ((Format) format.clone()).format(argument);
+                if (format instanceof ChoiceFormat && formatted.indexOf('{') >= 0) {
+                    // A choice may itself be a pattern referring to the arguments.
+                    formatted = new MessageFormat(formatted, locale).format(arguments);
+                }
+                result.append(formatted);
+            } else if (argument instanceof Number) {
+                result.append(NumberFormat.getInstance(locale).format(argument));
+            } else if (argument instanceof Date) {
+                result.append(DateFormat.getDateTimeInstance(DateFormat.SHORT, DateFormat.SHORT, locale)
+                                        .format(argument));
+            } else if (argument instanceof String) {
+                result.append((String) argument);
+            } else {
+                String value = argument.toString();
+                result.append(value != null ? value : "null");
+            }
+        }
+        result.append(literals[argumentIndexes.length]);
+    }
+
+    /**
+     * Create a new, unshared {@link MessageFormat} for this template's pattern.
+     */
+    public MessageFormat toMessageFormat() {
+        return new MessageFormat(pattern, locale);
+    }
+
+    @Override
+    public String toString() {
+        return pattern;
+    }
+}
@@ -0,0 +1,371 @@
+/*
+ * Copyright 2017 LINE Corporation
+ *
+ * LINE Corporation licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.github.imasahiro.spring;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.ResourceBundle;
+import java.util.Set;
+
+/**
+ * {@link ResourceBundle} parsed from a {@code .properties} file, as a faster
+ * alternative to {@link java.util.PropertyResourceBundle}.
+ *
+ * <p>{@link java.util.PropertyResourceBundle} reads through
+ * {@link java.util.Properties}, a synchronized Hashtable, character by character
+ * from a Reader. This bundle decodes the whole file with the given charset in one
+ * pass and parses the characters in place into a plain {@link HashMap}, which is
+ * never modified afterwards. Keys and values without escapes are copied directly
+ * from the decoded characters. Parsing follows {@link java.util.Properties#load(java.io.Reader)}:
+ * comments, continuation lines, key separators and escapes including
+ * {@code \\uXXXX} are handled the same way. Malformed input is replaced, as
+ * {@link java.io.InputStreamReader} does.
+ *
+ * <p>The one difference is with Java 8, whose Properties reads a {@code #} or {@code !}
+ * right after a line continuation at the start of a line as part of a key. Such lines
+ * are always comments here, as with Properties of Java 9 and later.
+ */
+public final class PropertiesBundle extends ResourceBundle {
+
+    /**
+     * Files of at least this size are memory-mapped rather than read onto the heap.
+     * Decoding from the heap is faster, but would need a copy of the whole file.
+     */
+    private static final long MAPPING_THRESHOLD = 16 * 1024 * 1024;
+
+    private final Map<String, String> messages;
+
+    private PropertiesBundle(Map<String, String> messages) {
+        this.messages = messages;
+    }
+
+    /**
+     * Read a properties file from the given stream. The stream is not closed.
+     *
+     * @param in the stream to read the properties from
+     * @param charset the encoding of the properties
+     *
+     * @return the loaded bundle
+     *
+     * @throws IOException in case of I/O failure
+     * @throws IllegalArgumentException if the properties contain a malformed {@code \\uXXXX} escape
+     */
+    public static PropertiesBundle read(InputStream in, Charset charset) throws IOException {
+        byte[] bytes = new byte[Math.max(in.available(), 8192)];
+        int length = 0;
+        int read;
+        while ((read = in.read(bytes, length, bytes.length - length)) >= 0) {
+            length += read;
+            if (length == bytes.length) {
+                // Only grow if the stream did not end exactly at the estimated size.
+                int next = in.read();
+                if (next < 0) {
+                    break;
+                }
+                bytes = Arrays.copyOf(bytes, bytes.length * 2);
+                bytes[length++] = (byte) next;
+            }
+        }
+        return decode(ByteBuffer.wrap(bytes, 0, length), charset);
+    }
+
+    /**
+     * Read the properties file at the given path through a {@link FileChannel},
+     * memory-mapping it if it is large.
+     *
+     * @param file the properties file
+     * @param charset the encoding of the properties
+     *
+     * @return the loaded bundle
+     *
+     * @throws IOException in case of I/O failure
+     * @throws IllegalArgumentException if the properties contain a malformed {@code \\uXXXX} escape
+     */
+    public static PropertiesBundle read(Path file, Charset charset) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size >= MAPPING_THRESHOLD) {
+                return decode(channel.map(FileChannel.MapMode.READ_ONLY, 0, size), charset);
+            }
+            ByteBuffer bytes = ByteBuffer.allocate((int) size);
+            while (bytes.hasRemaining()) {
+                if (channel.read(bytes) < 0) {
+                    break;
+                }
+            }
+            bytes.flip();
+            return decode(bytes, charset);
+        }
+    }
+
+    /**
+     * Parse properties from the given bytes, e.g. of a memory-mapped file.
+     *
+     * @param bytes the encoded properties, read from their position to their limit
+     * @param charset the encoding of the properties
+     *
+     * @return the loaded bundle
+     *
+     * @throws IllegalArgumentException if the properties contain a malformed {@code \\uXXXX} escape
+     */
+    public static PropertiesBundle decode(ByteBuffer bytes, Charset charset) {
+        if (bytes.hasArray()) {
+            // String decoding is intrinsified by the JDK and replaces malformed input the same way.
+            char[] chars = new String(bytes.array(), bytes.arrayOffset() + bytes.position(),
+                                      bytes.remaining(), charset).toCharArray();
+            return new PropertiesBundle(parse(chars, 0, chars.length));
+        }
+        CharBuffer chars;
+        try {
+            chars = charset.newDecoder()
+                           .onMalformedInput(CodingErrorAction.REPLACE)
+                           .onUnmappableCharacter(CodingErrorAction.REPLACE)
+                           .decode(bytes);
+        } catch (CharacterCodingException ex) {
+            // Cannot happen when replacing.
+            throw new IllegalStateException(ex);
+        }
+        return new PropertiesBundle(parse(chars.array(), chars.arrayOffset() + chars.position(),
+                                          chars.arrayOffset() + chars.limit()));
+    }
+
+    private static Map<String, String> parse(char[] chars, int start, int end) {
+        Map<String, String> messages = new HashMap<>();
+        StringBuilder buffer = new StringBuilder();
+        int pos = start;
+        while (pos < end) {
+            char c = chars[pos];
+            if (c == ' ' || c == '\t' || c == '\f' || c == '\r' || c == '\n') {
+                // Leading whitespace and blank lines
+                pos++;
+                continue;
+            }
+            if (c == '\\' && pos + 1 < end && isLineBreak(chars, pos + 1, end)) {
+                // A line continued before any content still starts a new line, which may be blank or a comment.
+                if (pos + 2 == end) {
+                    // Properties reads an empty key for a line break that ends the file right after a backslash.
+                    messages.put("", "");
+                }
+                pos = continueLine(chars, pos + 1, end);
+                continue;
+            }
+            if (c == '#' || c == '!') {
+                // Comments never continue on the next line.
+                while (pos < end && chars[pos] != '\r' && chars[pos] != '\n') {
+                    pos++;
+                }
+                continue;
+            }
+
+            // The key ends at the first unescaped separator, whitespace or line break. Runs
+            // without escapes, usually the whole key or value, are copied in one go.
+            int keyStart = pos;
+            while (pos < end && !isKeyEnd(chars[pos])) {
+                pos++;
+            }
+            String key;
+            if (pos < end && chars[pos] == '\\') {
+                buffer.setLength(0);
+                buffer.append(chars, keyStart, pos - keyStart);
+                while (pos < end && (chars[pos] == '\\' || !isKeyEnd(chars[pos]))) {
+                    if (chars[pos] == '\\') {
+                        pos = unescape(chars, pos + 1, end, buffer);
+                    } else {
+                        buffer.append(chars[pos++]);
+                    }
+                }
+                key = buffer.toString();
+            } else {
+                key = new String(chars, keyStart, pos - keyStart);
+            }
+
+            // Whitespace and at most one separator
+            boolean separated = false;
+            while (pos < end) {
+                c = chars[pos];
+                if (c == ' ' || c == '\t' || c == '\f') {
+                    pos++;
+                } else if (!separated && (c == '=' || c == ':')) {
+                    pos++;
+                    separated = true;
+                } else if (c == '\\' && isLineBreak(chars, pos + 1, end)) {
+                    pos = unescape(chars, pos + 1, end, buffer);
+                } else {
+                    break;
+                }
+            }
+
+            int valueStart = pos;
+            while (pos < end && chars[pos] != '\\' && chars[pos] != '\r' && chars[pos] != '\n') {
+                pos++;
+            }
+            String value;
+            if (pos < end && chars[pos] == '\\') {
+                buffer.setLength(0);
+                buffer.append(chars, valueStart, pos - valueStart);
+                while (pos < end && chars[pos] != '\r' && chars[pos] != '\n') {
+                    if (chars[pos] == '\\') {
+                        pos = unescape(chars, pos + 1, end, buffer);
+                    } else {
+                        buffer.append(chars[pos++]);
+                    }
+                }
+                value = buffer.toString();
+            } else {
+                value = new String(chars, valueStart, pos - valueStart);
+            }
+            messages.put(key, value);
+        }
+        return messages;
+    }
+
+    private static boolean isKeyEnd(char c) {
+        return c == '=' || c == ':' || c == ' ' || c == '\t' || c == '\f' ||
+               c == '\\' || c == '\r' || c == '\n';
+    }
+
+    private static boolean isLineBreak(char[] chars, int pos, int end) {
+        return pos >= end || chars[pos] == '\r' || chars[pos] == '\n';
+    }
+
+    /**
+     * Skip the line break at the given position and the leading whitespace of the next line.
+     *
+     * @return the position of the first character of the continued line
+     */
+    private static int continueLine(char[] chars, int pos, int end) {
+        if (chars[pos++] == '\r' && pos < end && chars[pos] == '\n') {
+            pos++;
+        }
+        while (pos < end && (chars[pos] == ' ' || chars[pos] == '\t' || chars[pos] == '\f')) {
+            pos++;
+        }
+        return pos;
+    }
+
+    /**
+     * Append the character escaped at the given position, or skip the line break and
+     * the leading whitespace of the next line for a line continuation.
+     *
+     * @return the position after the escape
+     */
+    private static int unescape(char[] chars, int pos, int end, StringBuilder out) {
+        if (pos >= end) {
+            // A trailing backslash is dropped.
+            return pos;
+        }
+        char c = chars[pos];
+        if (c == '\r' || c == '\n') {
+            return continueLine(chars, pos, end);
+        }
+        pos++;
+        switch (c) {
+            case 't':
+                out.append('\t');
+                return pos;
+            case 'n':
+                out.append('\n');
+                return pos;
+            case 'r':
+                out.append('\r');
+                return pos;
+            case 'f':
+                out.append('\f');
+                return pos;
+            case 'u':
+                int value = 0;
+                for (int i = 0; i < 4; i++) {
+                    // Lines are joined before escapes are resolved, so the digits may continue on the next line.
+                    while (pos + 1 < end && chars[pos] == '\\' && isLineBreak(chars, pos + 1, end)) {
+                        pos = continueLine(chars, pos + 1, end);
+                    }
+                    int digit = pos < end ? hexDigit(chars[pos++]) : -1;
+                    if (digit < 0) {
+                        throw new IllegalArgumentException("Malformed \\uxxxx encoding.");
+                    }
+                    value = (value << 4) + digit;
+                }
+                out.append((char) value);
+                return pos;
+            default:
+                out.append(c);
+                return pos;
+        }
+    }
+
+    /**
+     * Return the value of the given ASCII hexadecimal digit, or -1 if it is none. Unlike
+     * {@link Character#digit(char, int)}, other Unicode digits are rejected as by Properties.
+     */
+    private static int hexDigit(char c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        }
+        if (c >= 'a' && c <= 'f') {
+            return c - 'a' + 10;
+        }
+        if (c >= 'A' && c <= 'F') {
+            return c - 'A' + 10;
+        }
+        return -1;
+    }
+
+    @Override
+    protected Object handleGetObject(String key) {
+        if (key == null) {
+            throw new NullPointerException();
+        }
+        return messages.get(key);
+    }
+
+    @Override
+    public boolean containsKey(String key) {
+        if (key == null) {
+            throw new NullPointerException();
+        }
+        return messages.containsKey(key) || parent != null && parent.containsKey(key);
+    }
+
+    @Override
+    public Enumeration<String> getKeys() {
+        if (parent == null) {
+            return Collections.enumeration(messages.keySet());
+        }
+        Set<String> keys = new HashSet<>(messages.keySet());
+        keys.addAll(Collections.list(parent.getKeys()));
+        return Collections.enumeration(keys);
+    }
+
+    @Override
+    protected Set<String> handleKeySet() {
+        return Collections.unmodifiableSet(messages.keySet());
+    }
+}
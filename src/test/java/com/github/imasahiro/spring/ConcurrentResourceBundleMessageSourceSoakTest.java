@@ -0,0 +1,100 @@
+/*
+ * Copyright 2017 LINE Corporation
+ *
+ * LINE Corporation licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.github.imasahiro.spring;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.ResourceBundle;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Reloads a bundle 10,000 times and checks that the templates of the replaced
+ * bundles do not keep them reachable.
+ */
+public class ConcurrentResourceBundleMessageSourceSoakTest {
+
+    private static final int CYCLES = 10000;
+
+    private static final int KEY_COUNT = 200;
+
+    private static final int KEYS_PER_CYCLE = 20;
+
+    /**
+     * Upper bound of the heap growth between the first 1,000 cycles and the end. Each
+     * cycle leaks a bundle of about 20KB if replaced bundles are not released.
+     */
+    private static final long MAX_HEAP_GROWTH = 16 * 1024 * 1024;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void heapStaysFlatAcrossReloads() throws Exception {
+        Path dir = folder.getRoot().toPath();
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < KEY_COUNT; i++) {
+            lines.add("key" + i + "=Value number " + i + " of {0}, padded to a realistic message length");
+        }
+        Files.write(dir.resolve("messages.properties"), lines, StandardCharsets.ISO_8859_1);
+        try (URLClassLoader classLoader = new URLClassLoader(new URL[] { dir.toUri().toURL() }, null)) {
+            ConcurrentResourceBundleMessageSource messageSource = new ConcurrentResourceBundleMessageSource();
+            messageSource.setBeanClassLoader(classLoader);
+            messageSource.setBasenames("messages");
+            messageSource.setCacheSeconds(3600);
+            messageSource.setFallbackToSystemLocale(false);
+
+            Object[] args = { 1 };
+            long baseline = 0;
+            for (int cycle = 1; cycle <= CYCLES; cycle++) {
+                // Every cycle replaces the bundle, as an expired cache entry would.
+                ResourceBundle.clearCache(classLoader);
+                for (int i = 0; i < KEY_COUNT; i += KEY_COUNT / KEYS_PER_CYCLE) {
+                    assertEquals("Value number " + i + " of 1, padded to a realistic message length",
+                                 messageSource.getMessage("key" + i, args, Locale.ENGLISH));
+                }
+                if (cycle == CYCLES / 10) {
+                    baseline = usedHeap();
+                }
+            }
+            long growth = usedHeap() - baseline;
+
+            assertEquals((long) CYCLES * KEYS_PER_CYCLE, messageSource.getMetrics().getTemplateCreations());
+            assertTrue("Heap grew by " + growth / 1024 + "KB", growth < MAX_HEAP_GROWTH);
+        }
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(20);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2017 LINE Corporation
+ *
+ * LINE Corporation licenses this file to you under the Apache License,
+ * version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.github.imasahiro.spring;
+
+import static org.junit.Assert.assertEquals;
+
+import java.text.MessageFormat;
+import java.util.Date;
+import java.util.Locale;
+
+import org.junit.Test;
+
+/**
+ * Checks that {@link MessageTemplate} formats the same as {@link MessageFormat}.
+ */
+public class MessageTemplateTest {
+
+    private static final Date DATE = new Date(1500000000000L);
+
+    @Test
+    public void plainArguments() {
+        assertSameAsMessageFormat("Hello, {0}!", Locale.ENGLISH, "world");
+        assertSameAsMessageFormat("{1} of {0}", Locale.ENGLISH, "b", "a");
+        assertSameAsMessageFormat("{0} {1}", Locale.GERMANY, 1234567.5, DATE);
+        assertSameAsMessageFormat("{0} and {2}", Locale.ENGLISH, "only one");
+        assertSameAsMessageFormat("{0}", Locale.ENGLISH, (Object) null);
+        assertSameAsMessageFormat("{0}", Locale.ENGLISH, (Object[]) null);
+    }
+
+    @Test
+    public void numberArguments() {
+        assertSameAsMessageFormat("{0,number}", Locale.US, 1234567.891);
+        assertSameAsMessageFormat("{0,number}", Locale.GERMANY, 1234567.891);
+        assertSameAsMessageFormat("{0,number,integer} items", Locale.FRANCE, 1234567.891);
+        assertSameAsMessageFormat("{0,number,percent}", Locale.ENGLISH, 0.25);
+        assertSameAsMessageFormat("{0,number,#,##0.00}", Locale.US, 1234.5);
+    }
+
+    @Test
+    public void dateArguments() {
+        assertSameAsMessageFormat("{0,date}", Locale.US, DATE);
+        assertSameAsMessageFormat("{0,date,short} {0,time,short}", Locale.JAPAN, DATE);
+        assertSameAsMessageFormat("{0,date,long}", Locale.GERMANY, DATE);
+        assertSameAsMessageFormat("{0,date,yyyy-MM-dd}", Locale.ENGLISH, DATE);
+    }
+
+    @Test
+    public void choiceArguments() {
+        String pattern = "{0,choice,0#no files|1#one file|1<{0,number,integer} files}";
+        for (int count : new int[] { 0, 1, 2, 1234 }) {
+            assertSameAsMessageFormat(pattern, Locale.US, count);
+        }
+        assertSameAsMessageFormat("{0,choice,0#none|1#{1}}", Locale.ENGLISH, 1, "nested");
+    }
+
+    @Test
+    public void quotes() {
+        assertSameAsMessageFormat("It''s {0}", Locale.ENGLISH, "mine");
+        assertSameAsMessageFormat("'{0}' is {0}", Locale.ENGLISH, "quoted");
+        assertSameAsMessageFormat("'It''s' {0}", Locale.ENGLISH, "quoted");
+        assertSameAsMessageFormat("''{0}''", Locale.ENGLISH, "quoted");
+    }
+
+    @Test
+    public void literalBraces() {
+        assertSameAsMessageFormat("'{'{0}'}'", Locale.ENGLISH, "braced");
+        assertSameAsMessageFormat("a '{' b {0}", Locale.ENGLISH, "c");
+        assertSameAsMessageFormat("{0} }", Locale.ENGLISH, "closing");
+        assertSameAsMessageFormat("no arguments", Locale.ENGLISH);
+    }
+
+    private static void assertSameAsMessageFormat(String pattern, Locale locale, Object... arguments) {
+        String expected = new MessageFormat(pattern, locale).format(arguments);
+        MessageTemplate template = MessageTemplate.compile(pattern, locale);
+        assertEquals(pattern, expected, template.format(arguments));
+        StringBuilder result = new StringBuilder("prefix ");
+        template.formatTo(result, arguments);
+        assertEquals(pattern, "prefix " + expected, result.toString());
+    }
+}